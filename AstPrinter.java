@@ -67,6 +67,11 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return builder.toString();
     }
 
+    @Override
+    public String visitForStmt(Stmt.For stmt) {
+        return parenthesize2("for", stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    }
+
     @Override
     public String visitIfStmt(Stmt.If stmt) {
         if (stmt.elseBranch == null) {
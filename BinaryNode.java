@@ -0,0 +1,398 @@
+/**
+ * Class for the implementations an Expr.Binary node rewrites itself to while running.
+ * A node starts uninitialized, specializes to a number-only or string-only version
+ * for the operand types it first observes, and replaces itself with the generic
+ * version for good the first time the operands stop matching.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    /**
+     * Method to apply the operator to the evaluated operands
+     *
+     * @param expr Expr.Binary owning this node
+     * @param left Object
+     * @param right Object
+     *
+     * @return Object
+     */
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    /**
+     * Method to evaluate the operands and apply the operator
+     *
+     * @param interpreter Interpreter
+     * @param expr Expr.Binary owning this node
+     *
+     * @return Object
+     */
+    Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluate(expr.left);
+        Object right = interpreter.evaluate(expr.right);
+        return execute(expr, left, right);
+    }
+
+    /**
+     * Method to pick the specialization matching the operand types seen at a node
+     *
+     * @param operator TokenType
+     * @param left Object
+     * @param right Object
+     *
+     * @return BinaryNode
+     */
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL: return new NotEqual();
+            case EQUAL_EQUAL: return new Equal();
+        }
+
+        if(left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case GREATER: return new NumberGreater();
+                case GREATER_EQUAL: return new NumberGreaterEqual();
+                case LESS: return new NumberLess();
+                case LESS_EQUAL: return new NumberLessEqual();
+                case MINUS: return new NumberSubtract();
+                case PLUS: return new NumberAdd();
+                case SLASH: return new NumberDivide();
+                case STAR: return new NumberMultiply();
+            }
+        }
+
+        if(operator == TokenType.PLUS && left instanceof CharSequence && right instanceof CharSequence) {
+            return new StringAdd();
+        }
+
+        return GENERIC;
+    }
+
+    /**
+     * Method to check for the divisors the generic version rejects by their text
+     * starting with "0", that is positive zero and the fractions Double.toString
+     * prints in plain notation
+     *
+     * @param right double
+     *
+     * @return boolean
+     */
+    static boolean isZeroDivisor(double right) {
+        if(Double.doubleToRawLongBits(right) == 0L) return true;
+        return right >= 0.001 && right < 1;
+    }
+
+    // Operators for the tiers that do not rewrite nodes, the closure compiler and
+    // the JIT. Each takes the fast path for numbers inline and otherwise leaves the
+    // operator, and every error it reports, to the generic version.
+
+    static Object add(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        return GENERIC.execute(expr, left, right);
+    }
+
+    static Object subtract(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left - (double)right;
+        return GENERIC.execute(expr, left, right);
+    }
+
+    static Object multiply(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left * (double)right;
+        return GENERIC.execute(expr, left, right);
+    }
+
+    static Object divide(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double && !isZeroDivisor((double)right)) {
+            return (double)left / (double)right;
+        }
+        return GENERIC.execute(expr, left, right);
+    }
+
+    static boolean greater(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left > (double)right;
+        return (boolean) GENERIC.execute(expr, left, right);
+    }
+
+    static boolean greaterEqual(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+        return (boolean) GENERIC.execute(expr, left, right);
+    }
+
+    static boolean less(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left < (double)right;
+        return (boolean) GENERIC.execute(expr, left, right);
+    }
+
+    static boolean lessEqual(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+        return (boolean) GENERIC.execute(expr, left, right);
+    }
+
+    /**
+     * Method to handle a type miss by rewriting the node to the generic version
+     *
+     * @param expr Expr.Binary
+     * @param left Object
+     * @param right Object
+     *
+     * @return Object
+     */
+    static Object despecialize(Expr.Binary expr, Object left, Object right) {
+        expr.specialization = GENERIC;
+        return GENERIC.execute(expr, left, right);
+    }
+
+    private static class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            expr.specialization = specialize(expr.operator.type, left, right);
+            return expr.specialization.execute(expr, left, right);
+        }
+    }
+
+    private static class Equal extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    }
+
+    private static class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    }
+
+    /**
+     * Class for the arithmetic specializations, which also evaluate their operands
+     * unboxed when the result is consumed as a number
+     */
+    abstract static class NumberArithmetic extends BinaryNode {
+        abstract double apply(double left, double right);
+
+        /**
+         * Method to check the right operand is one this specialization can handle
+         *
+         * @param right double
+         *
+         * @return boolean
+         */
+        boolean accepts(double right) {
+            return true;
+        }
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double && accepts((double)right)) {
+                return apply((double)left, (double)right);
+            }
+            return despecialize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return evaluateNumber(interpreter, expr);
+            } catch (NumberMiss miss) {
+                return miss.value;
+            }
+        }
+
+        /**
+         * Method to evaluate the node without boxing the operands or the result
+         *
+         * @param interpreter Interpreter
+         * @param expr Expr.Binary
+         *
+         * @return double
+         */
+        double evaluateNumber(Interpreter interpreter, Expr.Binary expr) {
+            double left;
+            try {
+                left = interpreter.evaluateNumber(expr.left);
+            } catch (NumberMiss miss) {
+                return missed(expr, miss.value, interpreter.evaluate(expr.right));
+            }
+
+            double right;
+            try {
+                right = interpreter.evaluateNumber(expr.right);
+            } catch (NumberMiss miss) {
+                return missed(expr, left, miss.value);
+            }
+
+            if(!accepts(right)) return missed(expr, left, right);
+            return apply(left, right);
+        }
+
+        private static double missed(Expr.Binary expr, Object left, Object right) {
+            Object result = despecialize(expr, left, right);
+            if(result instanceof Double) return (double)result;
+            throw new NumberMiss(result);
+        }
+    }
+
+    /**
+     * Class for the comparison specializations, which compare unboxed operands
+     */
+    abstract static class NumberComparison extends BinaryNode {
+        abstract boolean test(double left, double right);
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof Double && right instanceof Double) {
+                return test((double)left, (double)right);
+            }
+            return despecialize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            double left;
+            try {
+                left = interpreter.evaluateNumber(expr.left);
+            } catch (NumberMiss miss) {
+                return despecialize(expr, miss.value, interpreter.evaluate(expr.right));
+            }
+
+            double right;
+            try {
+                right = interpreter.evaluateNumber(expr.right);
+            } catch (NumberMiss miss) {
+                return despecialize(expr, left, miss.value);
+            }
+
+            return test(left, right);
+        }
+    }
+
+    private static class NumberGreater extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left > right;
+        }
+    }
+
+    private static class NumberGreaterEqual extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    private static class NumberLess extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left < right;
+        }
+    }
+
+    private static class NumberLessEqual extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    private static class NumberSubtract extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left - right;
+        }
+    }
+
+    private static class NumberAdd extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left + right;
+        }
+    }
+
+    private static class NumberDivide extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left / right;
+        }
+
+        @Override
+        boolean accepts(double right) {
+            return !isZeroDivisor(right);
+        }
+    }
+
+    private static class NumberMultiply extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left * right;
+        }
+    }
+
+    private static class StringAdd extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if(left instanceof CharSequence && right instanceof CharSequence) {
+                return Rope.concat((CharSequence)left, (CharSequence)right);
+            }
+            return despecialize(expr, left, right);
+        }
+    }
+
+    /**
+     * Class for the fully general operator semantics, including every type error
+     */
+    private static class Generic extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            switch (expr.operator.type){
+                case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+                case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+                case GREATER:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left > (double)right;
+                case GREATER_EQUAL:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left >= (double)right;
+                case LESS:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left < (double)right;
+                case LESS_EQUAL:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left <= (double)right;
+                case MINUS:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left - (double)right;
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        return (double)left + (double)right;
+                    }
+
+                    // Strings concatenate as ropes, see Rope.
+                    if (left instanceof CharSequence && right instanceof CharSequence) {
+                        return Rope.concat((CharSequence)left, (CharSequence)right);
+                    }
+
+                    if( left instanceof CharSequence && right instanceof Double){
+                        return Rope.concat((CharSequence)left, Interpreter.stringify(right));
+                    }
+
+                    if( left instanceof Double && right instanceof CharSequence ){
+                        return Rope.concat(Interpreter.stringify(left), (CharSequence)right);
+                    }
+                    throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
+                case SLASH:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    if(right instanceof Double && (right.toString().startsWith("0"))){
+                        throw new RuntimeError(expr.operator, "Cannot divide by 0.");
+                    }
+                    return (double)left / (double)right;
+                case STAR:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double)left * (double)right;
+            }
+
+            // Unreachable.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,734 @@
+import java.util.List;
+
+/**
+ * Class for the bytecode compiler. Runs after the resolver has validated the program
+ * and lowers the syntax tree into chunks of bytecode for the VM.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_SHORT = 65535;
+
+    /**
+     * Enum for the kind of function being compiled
+     */
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /**
+     * Class for the compile time state of the function currently being compiled
+     */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VmFunction function;
+        final FunctionType type;
+        final Local[] locals = new Local[MAX_LOCALS];
+        final Upvalue[] upvalues = new Upvalue[MAX_UPVALUES];
+        int localCount = 0;
+        int scopeDepth = 0;
+        int stackDepth = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the callee, or the receiver inside methods.
+            String slotZero = type == FunctionType.METHOD || type == FunctionType.INITIALIZER ? "this" : "";
+            locals[localCount++] = new Local(slotZero, 0);
+            stackDepth = 1;
+            function.maxStack = 1;
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current;
+    private int line = 1;
+    // whether the call being compiled is the value of a return in tail position
+    private boolean tailCall = false;
+
+    BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    /**
+     * Method to compile a program into the top level script function
+     *
+     * @param statements List<Stmt>
+     *
+     * @return VmFunction
+     */
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new VmFunction(null), FunctionType.SCRIPT);
+        for(Stmt statement : statements) {
+            compile(statement);
+        }
+
+        return endFunction();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        String name = stmt.name.lexeme;
+        emitWithShort(OpCode.CLASS, makeConstant(name), 1);
+        declareVariable(name);
+
+        if(stmt.superclass != null) {
+            compile(stmt.superclass);
+
+            beginScope();
+            addLocal("super");
+
+            namedVariable(name, false);
+            line = stmt.superclass.name.line;
+            emit(OpCode.INHERIT, -1);
+        }
+
+        namedVariable(name, false);
+        for(Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            line = method.name.line;
+            emitWithShort(OpCode.METHOD, makeConstant(method.name.lexeme), -1);
+        }
+        emit(OpCode.POP, -1);
+
+        if(stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+
+        // A local function is declared before its body so it can refer to itself.
+        if(current.scopeDepth > 0) addLocal(stmt.name.lexeme);
+        function(stmt, FunctionType.FUNCTION);
+        if(current.scopeDepth == 0) {
+            emitWithShort(OpCode.DEFINE_GLOBAL, globalSlot(stmt.name.lexeme), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        // The condition is still on the stack when the else path starts.
+        current.stackDepth++;
+        emit(OpCode.POP, -1);
+        if(stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if(stmt.value == null) {
+            emitReturn();
+        } else {
+            tailCall = stmt.tailCall;
+            compile(stmt.value);
+            emit(OpCode.RETURN, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+
+        line = stmt.name.line;
+        declareVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        if(stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = current.function.chunk.count;
+        int exitJump = -1;
+        if(stmt.condition != null) {
+            compile(stmt.condition);
+            exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP, -1);
+        }
+
+        compile(stmt.body);
+        if(stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP, -1);
+        }
+        emitLoop(loopStart);
+
+        if(exitJump != -1) {
+            patchJump(exitJump);
+            // The condition is still on the stack when the loop exits.
+            current.stackDepth++;
+            emit(OpCode.POP, -1);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        // The condition is still on the stack when the loop exits.
+        current.stackDepth++;
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, -1); break;
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case PLUS: emit(OpCode.ADD, -1); break;
+            case MINUS: emit(OpCode.SUBTRACT, -1); break;
+            case STAR: emit(OpCode.MULTIPLY, -1); break;
+            case SLASH: emit(OpCode.DIVIDE, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int argCount = expr.arguments.size();
+        // Only this call is in tail position, not the calls among its operands.
+        boolean tail = tailCall;
+        tailCall = false;
+
+        if(expr.callee instanceof Expr.Get) {
+            // Method calls skip creating a bound method.
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            if(tail) emit(OpCode.TAIL_CALL, 0);
+            emitWithShort(OpCode.INVOKE, makeConstant(get.name.lexeme), -argCount);
+            emitByte(argCount);
+            return null;
+        }
+
+        if(expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            line = superExpr.keyword.line;
+            namedVariable("this", false);
+            compileArguments(expr.arguments);
+            namedVariable("super", false);
+            line = expr.paren.line;
+            if(tail) emit(OpCode.TAIL_CALL, 0);
+            emitWithShort(OpCode.SUPER_INVOKE, makeConstant(superExpr.method.lexeme), -argCount - 1);
+            emitByte(argCount);
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr.arguments);
+        line = expr.paren.line;
+        if(tail) emit(OpCode.TAIL_CALL, 0);
+        emit(OpCode.CALL, -argCount);
+        emitByte(argCount);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if(expr.value instanceof Boolean) {
+            emit((Boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else {
+            emitWithShort(OpCode.CONSTANT, makeConstant(expr.value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        if(expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitWithShort(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        namedVariable("this", false);
+        namedVariable("super", false);
+        line = expr.method.line;
+        emitWithShort(OpCode.GET_SUPER, makeConstant(expr.method.lexeme), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        namedVariable("this", false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, false);
+        return null;
+    }
+
+    /**
+     * Method to compile a function body and emit the closure that creates it at runtime
+     *
+     * @param declaration Stmt.Function
+     * @param type FunctionType
+     */
+    private void function(Stmt.Function declaration, FunctionType type) {
+        current = new FunctionState(current, new VmFunction(declaration.name.lexeme), type);
+        beginScope();
+
+        for(Token param : declaration.params) {
+            current.function.arity++;
+            line = param.line;
+            addLocal(param.lexeme);
+            trackStack(1);
+        }
+
+        for(Stmt statement : declaration.body) {
+            compile(statement);
+        }
+
+        FunctionState state = current;
+        VmFunction function = endFunction();
+
+        line = declaration.name.line;
+        emitWithShort(OpCode.CLOSURE, makeConstant(function), 1);
+        for(int i = 0; i < function.upvalueCount; i++) {
+            emitByte(state.upvalues[i].isLocal ? 1 : 0);
+            emitByte(state.upvalues[i].index);
+        }
+    }
+
+    /**
+     * Method to finish the current function and return to the enclosing one
+     *
+     * @return VmFunction
+     */
+    private VmFunction endFunction() {
+        emitReturn();
+        VmFunction function = current.function;
+        current = current.enclosing;
+        return function;
+    }
+
+    /**
+     * Method to compile the arguments of a call
+     *
+     * @param arguments List<Expr>
+     */
+    private void compileArguments(List<Expr> arguments) {
+        for(Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    /**
+     * Method to emit a read or write of a variable, resolving it as a local,
+     * an upvalue or a global
+     *
+     * @param name String
+     * @param assign boolean
+     */
+    private void namedVariable(String name, boolean assign) {
+        int index = resolveLocal(current, name);
+        if(index != -1) {
+            emit(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, assign ? 0 : 1);
+            emitByte(index);
+            return;
+        }
+
+        index = resolveUpvalue(current, name);
+        if(index != -1) {
+            emit(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, assign ? 0 : 1);
+            emitByte(index);
+            return;
+        }
+
+        emitWithShort(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, globalSlot(name), assign ? 0 : 1);
+    }
+
+    /**
+     * Method to find the stack slot of a local variable in the given function
+     *
+     * @param state FunctionState
+     * @param name String
+     *
+     * @return int slot, or -1 when the variable is not a local of that function
+     */
+    private int resolveLocal(FunctionState state, String name) {
+        for(int i = state.localCount - 1; i >= 0; i--) {
+            if(state.locals[i].name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Method to find or create the upvalue capturing a variable of an enclosing function
+     *
+     * @param state FunctionState
+     * @param name String
+     *
+     * @return int upvalue index, or -1 when the variable is a global
+     */
+    private int resolveUpvalue(FunctionState state, String name) {
+        if(state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if(local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if(upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Method to add an upvalue to a function, reusing an existing one for the same variable
+     *
+     * @param state FunctionState
+     * @param index int
+     * @param isLocal boolean
+     *
+     * @return int
+     */
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        int count = state.function.upvalueCount;
+        for(int i = 0; i < count; i++) {
+            Upvalue upvalue = state.upvalues[i];
+            if(upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if(count == MAX_UPVALUES) {
+            Fein.error(line, "Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues[count] = new Upvalue(index, isLocal);
+        return state.function.upvalueCount++;
+    }
+
+    /**
+     * Method to bind the value on top of the stack to a new variable, as a global
+     * at top level or as a local inside a scope
+     *
+     * @param name String
+     */
+    private void declareVariable(String name) {
+        if(current.scopeDepth > 0) {
+            addLocal(name);
+            return;
+        }
+
+        emitWithShort(OpCode.DEFINE_GLOBAL, globalSlot(name), -1);
+    }
+
+    /**
+     * Method to add a local variable to the current scope
+     *
+     * @param name String
+     */
+    private void addLocal(String name) {
+        if(current.localCount == MAX_LOCALS) {
+            Fein.error(line, "Too many local variables in function.");
+            return;
+        }
+        current.locals[current.localCount++] = new Local(name, current.scopeDepth);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    /**
+     * Method to end a scope, popping its locals and closing the ones captured by closures
+     */
+    private void endScope() {
+        current.scopeDepth--;
+
+        while(current.localCount > 0 &&
+                current.locals[current.localCount - 1].depth > current.scopeDepth) {
+            if(current.locals[current.localCount - 1].isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE, -1);
+            } else {
+                emit(OpCode.POP, -1);
+            }
+            current.localCount--;
+        }
+    }
+
+    /**
+     * Method to find the VM global slot for a name
+     *
+     * @param name String
+     *
+     * @return int
+     */
+    private int globalSlot(String name) {
+        int slot = vm.globalSlot(name);
+        if(slot > MAX_SHORT) {
+            Fein.error(line, "Too many global variables.");
+            return 0;
+        }
+        return slot;
+    }
+
+    /**
+     * Method to add a constant to the current chunk
+     *
+     * @param value Object
+     *
+     * @return int
+     */
+    private int makeConstant(Object value) {
+        int constant = current.function.chunk.addConstant(value);
+        if(constant > MAX_SHORT) {
+            Fein.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emitReturn() {
+        if(current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, 1);
+            emitByte(0);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+    }
+
+    /**
+     * Method to emit a forward jump with a placeholder offset
+     *
+     * @param instruction byte
+     *
+     * @return int offset of the placeholder to patch
+     */
+    private int emitJump(byte instruction) {
+        emitWithShort(instruction, 0xffff, 0);
+        return current.function.chunk.count - 2;
+    }
+
+    /**
+     * Method to point a forward jump at the current end of the chunk
+     *
+     * @param offset int
+     */
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count - offset - 2;
+        if(jump > MAX_SHORT) {
+            Fein.error(line, "Too much code to jump over.");
+        }
+
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    /**
+     * Method to emit a backward jump to the start of a loop
+     *
+     * @param loopStart int
+     */
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, 0);
+
+        int offset = current.function.chunk.count - loopStart + 2;
+        if(offset > MAX_SHORT) Fein.error(line, "Loop body too large.");
+
+        emitByte((offset >> 8) & 0xff);
+        emitByte(offset & 0xff);
+    }
+
+    /**
+     * Method to emit an instruction and record its effect on the stack height
+     *
+     * @param instruction byte
+     * @param stackEffect int
+     */
+    private void emit(byte instruction, int stackEffect) {
+        emitByte(instruction);
+        trackStack(stackEffect);
+    }
+
+    private void emitWithShort(byte instruction, int operand, int stackEffect) {
+        emit(instruction, stackEffect);
+        emitByte((operand >> 8) & 0xff);
+        emitByte(operand & 0xff);
+    }
+
+    private void emitByte(int b) {
+        current.function.chunk.write(b, line);
+    }
+
+    /**
+     * Method to keep track of the deepest stack the current function can reach
+     *
+     * @param stackEffect int
+     */
+    private void trackStack(int stackEffect) {
+        current.stackDepth += stackEffect;
+        if(current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Class for the inline cache of a call node. It remembers the callees seen at the
+ * node that passed the callable and arity checks, and for calls straight off an
+ * instance, the method slot found for each receiver shape, so repeated calls skip
+ * both the checks and the method lookup. A cache starts out monomorphic and holds
+ * up to LIMIT entries of each kind, a node seeing more than that goes megamorphic
+ * and stops caching.
+ *
+ * The cache keeps no closure alive. A callee is remembered by its target, what
+ * fixes its arity: a Fein function by its declaration, a class by its root shape
+ * and a native by itself. The count of arguments is fixed at a node, so a callee
+ * whose target is remembered is known to take them and is called directly. A
+ * method is remembered by its slot in the class of the receiver shape, see
+ * FeinClass.methodSlot.
+ */
+public class CallCache {
+    static final int LIMIT = 4;
+
+    private final Object[] targets = new Object[LIMIT];
+    private int calleeCount = 0;
+    private boolean megamorphicCallees = false;
+
+    private final Shape[] shapes = new Shape[LIMIT];
+    private final int[] methodSlots = new int[LIMIT];
+    private int methodCount = 0;
+    private boolean megamorphicMethods = false;
+
+    /**
+     * Method to check if a callee with this target already passed the checks at this node
+     *
+     * @param target Object
+     *
+     * @return boolean
+     */
+    boolean verified(Object target) {
+        for(int i = 0; i < calleeCount; i++) {
+            if(targets[i] == target) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Method to remember the target of a callee that passed the checks, if the node is not megamorphic
+     *
+     * @param target Object
+     */
+    void verify(Object target) {
+        if(megamorphicCallees) return;
+        if(calleeCount == LIMIT) {
+            // Too many callees to be worth searching, forget them all.
+            megamorphicCallees = true;
+            calleeCount = 0;
+            return;
+        }
+
+        targets[calleeCount++] = target;
+    }
+
+    /**
+     * Method to find the method slot cached for a receiver shape
+     *
+     * @param shape Shape
+     *
+     * @return int, -1 on a miss
+     */
+    int methodSlot(Shape shape) {
+        for(int i = 0; i < methodCount; i++) {
+            if(shapes[i] == shape) return methodSlots[i];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Method to remember the method slot found for a receiver shape, if the node is not megamorphic
+     *
+     * @param shape Shape
+     * @param slot int
+     */
+    void addMethod(Shape shape, int slot) {
+        if(megamorphicMethods) return;
+        if(methodCount == LIMIT) {
+            megamorphicMethods = true;
+            methodCount = 0;
+            return;
+        }
+
+        shapes[methodCount] = shape;
+        methodSlots[methodCount] = slot;
+        methodCount++;
+    }
+}
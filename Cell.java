@@ -0,0 +1,13 @@
+/**
+ * Class for a local variable captured by a closure. The frame slot of the
+ * variable holds the cell instead of the value, and every closure capturing the
+ * variable holds the same cell, so they all see each other's assignments and
+ * keep only the variables they use alive.
+ */
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for a chunk of Fein bytecode: the instruction stream, its constant pool
+ * and a run-length encoded line table used for runtime error reporting.
+ */
+class Chunk {
+    byte[] code = new byte[64];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    // pairs of (first code offset, line) recorded only when the line changes
+    private int[] lines = new int[16];
+    private int lineCount = 0;
+
+    /**
+     * Method to append a byte to the chunk
+     *
+     * @param b int
+     * @param line int
+     */
+    void write(int b, int line) {
+        if(count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+        }
+        code[count] = (byte) b;
+
+        if(lineCount == 0 || lines[lineCount - 1] != line) {
+            if(lineCount + 2 > lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[lineCount++] = count;
+            lines[lineCount++] = line;
+        }
+        count++;
+    }
+
+    /**
+     * Method to add a value to the constant pool, reusing an equal entry if present
+     *
+     * @param value Object
+     *
+     * @return int index of the constant
+     */
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Double || value instanceof String;
+        if(shareable) {
+            Integer existing = constantIndex.get(value);
+            if(existing != null) return existing;
+        }
+
+        if(constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        if(shareable) constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    /**
+     * Method to find the source line of the instruction at the given offset
+     *
+     * @param offset int
+     *
+     * @return int
+     */
+    int getLine(int offset) {
+        int line = 0;
+        for(int i = 0; i < lineCount && lines[i] <= offset; i += 2) {
+            line = lines[i + 1];
+        }
+        return line;
+    }
+
+    /**
+     * Method to read a big-endian unsigned short operand
+     *
+     * @param offset int
+     *
+     * @return int
+     */
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+}
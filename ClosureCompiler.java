@@ -0,0 +1,464 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the closure compiler, which translates the resolved syntax tree once
+ * into a tree of Java lambdas before it runs. Each lambda has its operator already
+ * picked, its variable slot already resolved and its constants already captured,
+ * so running the program pays neither the visitor's double dispatch nor the
+ * switches of the tree walker. The lambdas run on the Interpreter's frames and
+ * cells and share its helpers, so both engines behave and fail the same way.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+    // environment whose cells global accesses are bound to
+    private final Environment globals;
+
+    /**
+     * Interface for a compiled expression
+     */
+    interface ExprNode {
+        Object evaluate(Interpreter interpreter);
+    }
+
+    /**
+     * Interface for a compiled statement
+     */
+    interface StmtNode {
+        Completion execute(Interpreter interpreter);
+    }
+
+    /**
+     * Constructor for a compiler binding global variables in the given environment
+     *
+     * @param globals Environment
+     */
+    ClosureCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Method to compile a list of statements
+     *
+     * @param statements List<Stmt>
+     *
+     * @return StmtNode
+     */
+    StmtNode compile(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for(int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+
+        if(nodes.length == 1) return nodes[0];
+        return interpreter -> {
+            for(StmtNode node : nodes) {
+                Completion completion = node.execute(interpreter);
+                if(completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    private StmtNode compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode body = compile(stmt.statements);
+        if(stmt.releaseSlot == -1) return body;
+
+        int releaseSlot = stmt.releaseSlot;
+        return interpreter -> {
+            Completion completion = body.execute(interpreter);
+            interpreter.releaseScope(releaseSlot);
+            return completion;
+        };
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        ExprNode superclassNode = stmt.superclass == null ? null : compile(stmt.superclass);
+        List<Stmt.Function> declarations = stmt.methods;
+        List<StmtNode> bodies = new ArrayList<>();
+        for(Stmt.Function method : declarations) {
+            bodies.add(compile(method.body));
+        }
+
+        return interpreter -> {
+            Object superclass = null;
+            if(superclassNode != null) {
+                superclass = superclassNode.evaluate(interpreter);
+                if(!(superclass instanceof FeinClass)) {
+                    throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+                }
+            }
+
+            Cell cell = stmt.cellSlot != -1 ? interpreter.defineCell(stmt.cellSlot, null) : null;
+            if(superclassNode != null) interpreter.defineCell(stmt.superSlot, superclass);
+
+            Map<String, FeinFunction> methods = new HashMap<>();
+            for(int i = 0; i < declarations.size(); i++) {
+                Stmt.Function method = declarations.get(i);
+                methods.put(method.name.lexeme, new FeinFunction(method, interpreter.capture(method),
+                        method.name.lexeme.equals("init"), bodies.get(i)));
+            }
+
+            FeinClass klass = new FeinClass(stmt.name.lexeme, (FeinClass)superclass, methods);
+            if(cell != null) {
+                cell.value = klass;
+            } else {
+                interpreter.declare(stmt.name, stmt.stackSlot, -1, klass);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return interpreter -> {
+            expression.evaluate(interpreter);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        StmtNode initializer = stmt.initializer == null ? null : compile(stmt.initializer);
+        ExprNode condition = stmt.condition == null ? null : compile(stmt.condition);
+        ExprNode increment = stmt.increment == null ? null : compile(stmt.increment);
+        StmtNode body = compile(stmt.body);
+
+        StmtNode loop = interpreter -> {
+            if(initializer != null) initializer.execute(interpreter);
+
+            while(condition == null || Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                Completion completion = body.execute(interpreter);
+                if(completion != Completion.NORMAL) return completion;
+                if(increment != null) increment.evaluate(interpreter);
+
+                Completion resumed = interpreter.backEdge(stmt);
+                if(resumed != null) return resumed;
+            }
+            return Completion.NORMAL;
+        };
+        if(stmt.releaseSlot == -1) return loop;
+
+        int releaseSlot = stmt.releaseSlot;
+        return interpreter -> {
+            Completion completion = loop.execute(interpreter);
+            interpreter.releaseScope(releaseSlot);
+            return completion;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        StmtNode body = compile(stmt.body);
+        return interpreter -> {
+            Cell cell = stmt.cellSlot != -1 ? interpreter.defineCell(stmt.cellSlot, null) : null;
+            FeinFunction function = new FeinFunction(stmt, interpreter.capture(stmt), false, body);
+            if(cell != null) {
+                cell.value = function;
+            } else {
+                interpreter.declare(stmt.name, stmt.stackSlot, -1, function);
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+        if(stmt.elseBranch == null) {
+            return interpreter -> {
+                if(Interpreter.isTruthy(condition.evaluate(interpreter))) return thenBranch.execute(interpreter);
+                return Completion.NORMAL;
+            };
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return interpreter -> {
+            if(Interpreter.isTruthy(condition.evaluate(interpreter))) return thenBranch.execute(interpreter);
+            return elseBranch.execute(interpreter);
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return interpreter -> {
+            System.out.println(Interpreter.stringify(expression.evaluate(interpreter)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tailCall) {
+            ExprNode call = compileCall((Expr.Call) stmt.value, true);
+            return interpreter -> {
+                Object value = call.evaluate(interpreter);
+                if(value == Interpreter.TAIL_CALL) return Completion.TAIL_CALL;
+                return interpreter.completeReturn(value);
+            };
+        }
+
+        if(stmt.value == null) return interpreter -> interpreter.completeReturn(null);
+
+        ExprNode value = compile(stmt.value);
+        return interpreter -> interpreter.completeReturn(value.evaluate(interpreter));
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        Token name = stmt.name;
+        int stackSlot = stmt.stackSlot;
+        int cellSlot = stmt.cellSlot;
+        if(stmt.initializer == null) {
+            return interpreter -> {
+                interpreter.declare(name, stackSlot, cellSlot, null);
+                return Completion.NORMAL;
+            };
+        }
+
+        ExprNode initializer = compile(stmt.initializer);
+        return interpreter -> {
+            interpreter.declare(name, stackSlot, cellSlot, initializer.evaluate(interpreter));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+        return interpreter -> {
+            while(Interpreter.isTruthy(condition.evaluate(interpreter))) {
+                Completion completion = body.execute(interpreter);
+                if(completion != Completion.NORMAL) return completion;
+
+                Completion resumed = interpreter.backEdge(stmt);
+                if(resumed != null) return resumed;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        int stackSlot = expr.stackSlot;
+        if(stackSlot != -1) {
+            return interpreter -> {
+                Object result = value.evaluate(interpreter);
+                interpreter.assignLocal(stackSlot, result);
+                return result;
+            };
+        }
+
+        int cellSlot = expr.cellSlot;
+        if(cellSlot != -1) {
+            return interpreter -> {
+                Object result = value.evaluate(interpreter);
+                interpreter.getCell(cellSlot).value = result;
+                return result;
+            };
+        }
+
+        int upvalue = expr.upvalue;
+        if(upvalue != -1) {
+            return interpreter -> {
+                Object result = value.evaluate(interpreter);
+                interpreter.getUpvalue(upvalue).value = result;
+                return result;
+            };
+        }
+
+        Token name = expr.name;
+        GlobalCell cell = globals.cell(name.lexeme);
+        return interpreter -> {
+            Object result = value.evaluate(interpreter);
+            cell.assign(name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        // The operator is picked here, each node only keeps the fast path for
+        // numbers and leaves everything else to the generic version.
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                return interpreter -> !Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            case EQUAL_EQUAL:
+                return interpreter -> Interpreter.isEqual(left.evaluate(interpreter), right.evaluate(interpreter));
+            case GREATER:
+                return interpreter -> BinaryNode.greater(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case GREATER_EQUAL:
+                return interpreter -> BinaryNode.greaterEqual(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case LESS:
+                return interpreter -> BinaryNode.less(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case LESS_EQUAL:
+                return interpreter -> BinaryNode.lessEqual(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case MINUS:
+                return interpreter -> BinaryNode.subtract(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case PLUS:
+                return interpreter -> BinaryNode.add(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case SLASH:
+                return interpreter -> BinaryNode.divide(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+            case STAR:
+                return interpreter -> BinaryNode.multiply(expr, left.evaluate(interpreter), right.evaluate(interpreter));
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        return compileCall(expr, false);
+    }
+
+    /**
+     * Method to compile a call, made by Interpreter.call and Interpreter.callMethod
+     *
+     * @param expr Expr.Call
+     * @param tail boolean
+     *
+     * @return ExprNode
+     */
+    private ExprNode compileCall(Expr.Call expr, boolean tail) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for(int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        Interpreter.CallArguments values = (interpreter, call, index) -> arguments[index].evaluate(interpreter);
+
+        // Method calls get a node of their own, so the object and the callee
+        // evaluated at each kind of call site keep their own type profiles.
+        if(expr.callee instanceof Expr.Get) {
+            ExprNode object = compile(((Expr.Get) expr.callee).object);
+            return interpreter -> interpreter.callMethod(object.evaluate(interpreter), expr, values, tail);
+        }
+
+        ExprNode callee = compile(expr.callee);
+        return interpreter -> interpreter.call(callee.evaluate(interpreter), null, expr, values, tail);
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        ExprNode object = compile(expr.object);
+        return interpreter -> Interpreter.getProperty(expr, object.evaluate(interpreter));
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return interpreter -> value;
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if(expr.operator.type == TokenType.OR) {
+            return interpreter -> {
+                Object value = left.evaluate(interpreter);
+                if(Interpreter.isTruthy(value)) return value;
+                return right.evaluate(interpreter);
+            };
+        }
+
+        return interpreter -> {
+            Object value = left.evaluate(interpreter);
+            if(!Interpreter.isTruthy(value)) return value;
+            return right.evaluate(interpreter);
+        };
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode value = compile(expr.value);
+        return interpreter -> {
+            FeinInstance instance = Interpreter.fieldOwner(expr, object.evaluate(interpreter));
+
+            Object result = value.evaluate(interpreter);
+            instance.set(expr.name, result, expr.cache);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        int upvalue = expr.upvalue;
+        ExprNode receiver = compile(expr.receiver);
+        return interpreter -> {
+            // Only methods use "super", and they all capture it.
+            FeinClass superclass = (FeinClass) interpreter.getUpvalue(upvalue).value;
+            FeinInstance object = (FeinInstance) receiver.evaluate(interpreter);
+
+            FeinFunction method = superclass.findMethod(expr.method.lexeme);
+            if(method == null) {
+                throw new RuntimeError(expr.method,
+                        "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            return method.bind(object);
+        };
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        int stackSlot = expr.stackSlot;
+        if(stackSlot != -1) return interpreter -> interpreter.getLocal(stackSlot);
+
+        int cellSlot = expr.cellSlot;
+        if(cellSlot != -1) return interpreter -> interpreter.getCell(cellSlot).value;
+
+        int upvalue = expr.upvalue;
+        return interpreter -> interpreter.getUpvalue(upvalue).value;
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        if(expr.operator.type == TokenType.BANG) {
+            return interpreter -> !Interpreter.isTruthy(right.evaluate(interpreter));
+        }
+
+        return interpreter -> Interpreter.negate(expr, right.evaluate(interpreter));
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        int stackSlot = expr.stackSlot;
+        if(stackSlot != -1) return interpreter -> interpreter.getLocal(stackSlot);
+
+        int cellSlot = expr.cellSlot;
+        if(cellSlot != -1) return interpreter -> interpreter.getCell(cellSlot).value;
+
+        int upvalue = expr.upvalue;
+        if(upvalue != -1) return interpreter -> interpreter.getUpvalue(upvalue).value;
+
+        Token name = expr.name;
+        GlobalCell cell = globals.cell(name.lexeme);
+        return interpreter -> cell.get(name);
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.List;
+
+/**
+ * Interface for a function body compiled to JVM bytecode by the JitCompiler
+ */
+interface CompiledFunction {
+
+    /**
+     * Method to run the compiled body
+     *
+     * @param interpreter Interpreter
+     * @param upvalues Cell[] the variables the function captured
+     * @param receiver FeinInstance the method runs on, null for plain functions
+     * @param a0 Object
+     * @param a1 Object
+     * @param a2 Object
+     * @param a3 Object
+     * @param arguments List<Object>, null unless the function takes more than four parameters
+     *
+     * @return Object the returned value, or Interpreter.TAIL_CALL when a tail call was left to the caller
+     */
+    Object run(Interpreter interpreter, Cell[] upvalues, FeinInstance receiver,
+               Object a0, Object a1, Object a2, Object a3, List<Object> arguments);
+
+    /**
+     * Method to run the rest of a call the interpreter started, from the start of
+     * the next iteration of one of its loops. The locals are taken from the frame
+     * of the call in the interpreter.
+     *
+     * @param interpreter Interpreter
+     * @param upvalues Cell[] the variables the function captured
+     * @param loop Stmt the Stmt.For or Stmt.While to continue
+     *
+     * @return Object the returned value, or Interpreter.TAIL_CALL when a tail call was left to the caller
+     */
+    Object resume(Interpreter interpreter, Cell[] upvalues, Stmt loop);
+}
@@ -0,0 +1,12 @@
+/**
+ * Enum for how a statement finished executing. A statement that ran a return
+ * completes with RETURN and the interpreter holds the returned value until the
+ * function call takes it, so returning needs neither an exception nor an allocation.
+ * A return of a call to a Fein function completes with TAIL_CALL instead, leaving
+ * the call for the returning function to make in place of its own frame.
+ */
+enum Completion {
+    NORMAL,
+    RETURN,
+    TAIL_CALL
+}
@@ -2,54 +2,30 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * class for environment data structure to store variable values association
+ * class for environment data structure to store variable values association.
+ * Only the global variables live in an environment, looked up by name. Locals
+ * live in frame slots assigned by the resolver, and closures hold cells of the
+ * locals they capture instead of the scopes they were declared in.
  */
 public class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    Environment(){
-        enclosing = null;
-    }
-
-    Environment(Environment enclosing){
-        this.enclosing = enclosing;
-    }
-
-    /**
-     * Method to get the values
-     *
-     * @param name Token
-     * @return Object
-     */
-    Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
-        }
-
-        if(enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name, "Undefined variable'"+ name.lexeme + "'.");
-    }
+    // cells of the global variables
+    private final Map<String, GlobalCell> values = new HashMap<>();
 
     /**
-     * Method to assign variables
+     * Method to get the cell of a global variable, creating an undefined one for
+     * a name that was not defined yet
      *
-     * @param name Token
-     * @param value Object
+     * @param name String
+     * @return GlobalCell
      */
-    void assign(Token name, Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if(enclosing != null){
-            enclosing.assign(name, value);
-            return;
+    GlobalCell cell(String name){
+        GlobalCell cell = values.get(name);
+        if(cell == null) {
+            cell = new GlobalCell();
+            values.put(name, cell);
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        return cell;
     }
 
     /**
@@ -59,55 +35,11 @@ public class Environment {
      * @param value Object
      */
     void define(String name, Object value){
-        values.put(name, value);
-    }
-
-    /**
-     * Method to traverse the distance and find the enclosing environment
-     *
-     * @param distance int
-     *
-     * @return Environment
-     */
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for(int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
-        }
-
-        return environment;
-    }
-
-    /**
-     * Method to get ancestor values using distance
-     *
-     * @param distance int
-     * @param name String
-     *
-     * @return Object
-     */
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-
-    /**
-     * Method to assign value based on distance of environment scope
-     *
-     * @param distance int
-     * @param name Token
-     * @param value Object
-     */
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        cell(name).define(value);
     }
 
     @Override
     public String toString() {
-        String result = values.toString();
-        if (enclosing != null) {
-            result += " -> " + enclosing.toString();
-        }
-
-        return result;
+        return values.toString();
     }
 }
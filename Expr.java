@@ -28,6 +28,10 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int stackSlot = -1;
+    int cellSlot = -1;
+    int upvalue = -1;
+    GlobalCell global;
     }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -44,6 +48,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    BinaryNode specialization = BinaryNode.UNINITIALIZED;
     }
  static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -60,6 +65,7 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    CallCache cache = new CallCache();
     }
  static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -74,6 +80,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    PropertyCache cache = new PropertyCache();
     }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -130,6 +137,7 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    PropertyCache cache = new PropertyCache();
     }
  static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -144,6 +152,8 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int upvalue = -1;
+    This receiver;
     }
  static class This extends Expr {
     This(Token keyword) {
@@ -156,6 +166,9 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int stackSlot = -1;
+    int cellSlot = -1;
+    int upvalue = -1;
     }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
@@ -182,6 +195,11 @@ abstract class Expr {
     }
 
     final Token name;
+    int stackSlot = -1;
+    int cellSlot = -1;
+    int upvalue = -1;
+    GlobalCell global;
+    Stmt.Var constant;
     }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -1,9 +1,11 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 
@@ -12,17 +14,40 @@ import java.util.List;
  */
 public class Fein {
     private static final Interpreter interpreter = new Interpreter();
+    private static final VM vm = new VM();
+
+    // when set, programs are compiled to bytecode and run on the VM instead of the tree walker
+    private static boolean useVm = false;
+    // the optimizer can be switched off to debug against the program exactly as written
+    private static boolean optimize = true;
+    // when set, the tree walker runs the program compiled to lambdas by the ClosureCompiler
+    private static boolean useClosures = false;
 
     // static variables to check whether program had any error
     static boolean hadError = false;
     static boolean hadRunTimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if(args.length > 1){
-            System.out.println("Usage: jFein [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        for(String arg : args) {
+            if(arg.equals("--vm")) {
+                useVm = true;
+            } else if(arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if(arg.equals("--closures")) {
+                useClosures = true;
+            } else if(arg.equals("--no-jit")) {
+                JitCompiler.enabled = false;
+            } else if(script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                System.out.println("Usage: jFein [--vm] [--closures] [--no-optimize] [--no-jit] [script]");
+                System.exit(64);
+            }
+        }
+
+        if (script != null) {
+            runFile(script);
         } else{
             runPrompt();
         }
@@ -36,8 +61,12 @@ public class Fein {
      * @throws IOException IOException
      */
     private static void runFile(String path) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        // The file is mapped rather than read, and the scanner reads its UTF-8 in place.
+        ByteBuffer source;
+        try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        run(source);
 
         // Indicate an error in the exit code
         if(hadError) System.exit(65);
@@ -57,7 +86,7 @@ public class Fein {
             System.out.println("Fein <::> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            run(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
             hadError = false;
         }
     }
@@ -65,23 +94,42 @@ public class Fein {
     /**
      * Method to scan tokens and execute Fein program
      *
-     * @param source String
+     * @param source ByteBuffer of UTF-8
      */
-    private static void run(String source) {
+    private static void run(ByteBuffer source) {
+        // Tokens are scanned as the parser reads them, see TokenStream.
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(scanner.tokens());
         List<Stmt> statements = parser.parse();
 
         // Stop if there was a syntax error.
         if(hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
         if(hadError) return;
 
+        if(optimize) {
+            statements = new Optimizer().optimize(statements);
+        }
+
+        if(useVm) {
+            VmFunction function = new BytecodeCompiler(vm).compile(statements);
+
+            // Stop if there was a compile error.
+            if(hadError) return;
+
+            vm.interpret(function);
+            return;
+        }
+
+        if(useClosures) {
+            interpreter.interpret(new ClosureCompiler(interpreter.globals).compile(statements));
+            return;
+        }
+
         interpreter.interpret(statements);
        // System.out.println(new AstPrinter().print(expression));
 
@@ -129,7 +177,7 @@ public class Fein {
     }
 
     static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        System.err.println(error.getMessage() + "\n[line " + error.line + "]");
         hadRunTimeError = true;
     }
 }
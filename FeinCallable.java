@@ -1,9 +1,35 @@
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Interface for Fein callable
+ *
+ * Calls with up to four arguments go through call0 to call4, which take the
+ * arguments directly so a callable that overrides them needs no argument list.
+ * The others fall back to call with the arguments collected in a list.
  */
 public interface FeinCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a0) {
+        return call(interpreter, Collections.singletonList(a0));
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return call(interpreter, Arrays.asList(a0, a1));
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return call(interpreter, Arrays.asList(a0, a1, a2));
+    }
+
+    default Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return call(interpreter, Arrays.asList(a0, a1, a2, a3));
+    }
 }
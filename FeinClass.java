@@ -1,3 +1,5 @@
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,41 +10,131 @@ public class FeinClass implements FeinCallable {
     final String name;
     final FeinClass superclass;
     private final Map<String, FeinFunction> methods;
+    // the methods by slot, so a call cache can remember a method without holding it
+    private final Map<String, Integer> methodSlots = new HashMap<>();
+    private final FeinFunction[] methodTable;
+    private final FeinFunction initializer;
+    private final int arity;
+    final Shape rootShape = new Shape();
+    // fields the initializer gave the last instance, used to size new instances
+    int fieldCount = 0;
 
     public FeinClass(String name,FeinClass superclass, Map<String, FeinFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        // Flatten the inherited methods into one table so a lookup never walks the superclass chain.
+        Map<String, FeinFunction> table = new HashMap<>();
+        if(superclass != null) {
+            table.putAll(superclass.methods);
+        }
+        table.putAll(methods);
+        this.methods = Collections.unmodifiableMap(table);
+        this.methodTable = new FeinFunction[table.size()];
+        for(Map.Entry<String, FeinFunction> method : table.entrySet()) {
+            methodTable[methodSlots.size()] = method.getValue();
+            methodSlots.put(method.getKey(), methodSlots.size());
+        }
+
+        this.initializer = this.methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
+    /**
+     * Method to find a method declared by the class or inherited from a superclass
+     *
+     * @param name String
+     *
+     * @return FeinFunction
+     */
     FeinFunction findMethod(String name) {
-        if(methods.containsKey(name)) {
-            return methods.get(name);
-        }
+        return methods.get(name);
+    }
 
-        if(superclass != null) {
-            return superclass.findMethod(name);
-        }
+    /**
+     * Method to find the slot of a method declared by the class or inherited from a superclass
+     *
+     * @param name String
+     *
+     * @return int, -1 when there is no such method
+     */
+    int methodSlot(String name) {
+        Integer slot = methodSlots.get(name);
+        return slot == null ? -1 : slot;
+    }
 
-        return null;
+    /**
+     * Method to get the method in a slot
+     *
+     * @param slot int
+     *
+     * @return FeinFunction
+     */
+    FeinFunction method(int slot) {
+        return methodTable[slot];
     }
 
     @Override
     public Object call(Interpreter interpreter,
                        List<Object> arguments){
         FeinInstance instance = new FeinInstance(this);
-        FeinFunction initializer = findMethod("init");
         if(initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
+            fieldCount = instance.fieldCount();
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return construct(interpreter, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        return construct(interpreter, a0, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return construct(interpreter, a0, a1, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return construct(interpreter, a0, a1, a2, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return construct(interpreter, a0, a1, a2, a3);
+    }
+
+    /**
+     * Method to create an instance, running the initializer with up to four arguments
+     *
+     * @param interpreter Interpreter
+     * @param a0 Object
+     * @param a1 Object
+     * @param a2 Object
+     * @param a3 Object
+     *
+     * @return FeinInstance
+     */
+    FeinInstance construct(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        FeinInstance instance = new FeinInstance(this);
+        if(initializer != null) {
+            // Instances leave the initializer with the same fields as a rule, and
+            // fields added later grow the instance that adds them.
+            initializer.invoke(interpreter, instance, a0, a1, a2, a3, null);
+            fieldCount = instance.fieldCount();
         }
         return instance;
     }
 
     @Override
     public int arity(){
-        FeinFunction initializer = findMethod("init");
-        if(initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 
 
@@ -3,14 +3,41 @@ import java.util.List;
 /**
  * Wrapper class for Fein function implementing callable
  */
-public class FeinFunction implements FeinCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
+public final class FeinFunction implements FeinCallable{
+    // most parameters a function gets without an argument list
+    static final int MAX_DIRECT = 4;
+
+    final Stmt.Function declaration;
+    // cells of the variables of enclosing functions the body uses
+    private final Cell[] upvalues;
     private final boolean isInitializer;
-    FeinFunction(Stmt.Function declaration, Environment closure, boolean isInitializer){
-        this.closure = closure;
+    // instance a method was bound to, null for plain functions and unbound methods
+    final FeinInstance receiver;
+    // body compiled by the ClosureCompiler, null when the function runs on the tree walker
+    private final ClosureCompiler.StmtNode body;
+
+    // how hot the function is, deciding when the JitCompiler compiles it
+    private int invocations = 0;
+    private int backEdges = 0;
+    private CompiledFunction compiled = null;
+    private boolean compilable = true;
+
+    FeinFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer){
+        this(declaration, upvalues, isInitializer, null, null);
+    }
+
+    FeinFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer,
+                 ClosureCompiler.StmtNode body){
+        this(declaration, upvalues, isInitializer, null, body);
+    }
+
+    private FeinFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer,
+                         FeinInstance receiver, ClosureCompiler.StmtNode body){
+        this.upvalues = upvalues;
         this.declaration = declaration;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
+        this.body = body;
     }
 
     /**
@@ -21,9 +48,7 @@ public class FeinFunction implements FeinCallable{
      * @return FeinFunction
      */
     FeinFunction bind(FeinInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new FeinFunction(declaration, environment, isInitializer);
+        return new FeinFunction(declaration, upvalues, isInitializer, instance, body);
     }
 
     @Override
@@ -33,21 +58,183 @@ public class FeinFunction implements FeinCallable{
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for(int i = 0; i < declaration.params.size(); i++){
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, receiver, null, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        return invoke(interpreter, receiver, a0, null, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return invoke(interpreter, receiver, a0, a1, null, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return invoke(interpreter, receiver, a0, a1, a2, null, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3) {
+        return invoke(interpreter, receiver, a0, a1, a2, a3, null);
+    }
+
+    /**
+     * Method to call the function with its arguments in a list
+     *
+     * @param interpreter Interpreter
+     * @param receiver FeinInstance, null for plain functions
+     * @param arguments List<Object>
+     *
+     * @return Object
+     */
+    Object invoke(Interpreter interpreter, FeinInstance receiver, List<Object> arguments) {
+        if(arguments.size() > MAX_DIRECT) return invoke(interpreter, receiver, null, null, null, null, arguments);
+        return invoke(interpreter, receiver, argument(arguments, 0), argument(arguments, 1),
+                argument(arguments, 2), argument(arguments, 3), null);
+    }
+
+    /**
+     * Method to call the function, with the receiver of a method taking the slot
+     * ahead of the parameters so a method can be invoked without being bound first.
+     * A function taking up to four parameters gets them directly, any other
+     * function gets them in a list.
+     *
+     * @param interpreter Interpreter
+     * @param receiver FeinInstance, null for plain functions
+     * @param a0 Object
+     * @param a1 Object
+     * @param a2 Object
+     * @param a3 Object
+     * @param arguments List<Object>, null unless the function takes more than four parameters
+     *
+     * @return Object
+     */
+    Object invoke(Interpreter interpreter, FeinInstance receiver,
+                  Object a0, Object a1, Object a2, Object a3, List<Object> arguments) {
+        FeinFunction function = this;
+        Completion completion = function.execute(interpreter, receiver, a0, a1, a2, a3, arguments);
+
+        // A tail call runs in place of the call that made it, so tail recursion
+        // needs no more Java stack than a loop.
+        while(completion == Completion.TAIL_CALL) {
+            function = interpreter.tailFunction;
+            receiver = interpreter.tailReceiver != null ? interpreter.tailReceiver : function.receiver;
+            List<Object> tailArguments = interpreter.tailArguments;
+            interpreter.tailFunction = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+
+            if(tailArguments.size() > MAX_DIRECT) {
+                completion = function.execute(interpreter, receiver, null, null, null, null, tailArguments);
+            } else {
+                completion = function.execute(interpreter, receiver, argument(tailArguments, 0),
+                        argument(tailArguments, 1), argument(tailArguments, 2), argument(tailArguments, 3), null);
+            }
+        }
+
+        Object value = null;
+        if(completion == Completion.RETURN) value = interpreter.takeReturnValue();
+        if(function.isInitializer) return receiver;
+
+        return value;
+    }
+
+    private static Object argument(List<Object> arguments, int index) {
+        return index < arguments.size() ? arguments.get(index) : null;
+    }
+
+    /**
+     * Method to run the body in a new frame holding the receiver and arguments
+     *
+     * @param interpreter Interpreter
+     * @param receiver FeinInstance
+     * @param a0 Object
+     * @param a1 Object
+     * @param a2 Object
+     * @param a3 Object
+     * @param arguments List<Object>, null unless the function takes more than four parameters
+     *
+     * @return Completion
+     */
+    private Completion execute(Interpreter interpreter, FeinInstance receiver,
+                               Object a0, Object a1, Object a2, Object a3, List<Object> arguments) {
+        if(compiled == null && compilable) {
+            invocations++;
+            if(invocations >= JitCompiler.INVOCATION_THRESHOLD || backEdges >= JitCompiler.BACK_EDGE_THRESHOLD) {
+                compile(interpreter);
+            }
+        }
+
+        if(compiled != null) {
+            Object result = compiled.run(interpreter, upvalues, receiver, a0, a1, a2, a3, arguments);
+            if(result == Interpreter.TAIL_CALL) return Completion.TAIL_CALL;
+            return interpreter.completeReturn(result);
         }
 
-        try{
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+        int parameters = declaration.params.size();
+
+        int previousFrame = interpreter.enterFrame(declaration.frameSize);
+        int first = 0;
+        if(receiver != null) interpreter.defineLocal(first++, receiver);
+        if(arguments != null) {
+            for(int i = 0; i < parameters; i++){
+                interpreter.defineLocal(first + i, arguments.get(i));
+            }
+        } else {
+            // Each parameter goes straight into its frame slot.
+            if(parameters > 0) interpreter.defineLocal(first, a0);
+            if(parameters > 1) interpreter.defineLocal(first + 1, a1);
+            if(parameters > 2) interpreter.defineLocal(first + 2, a2);
+            if(parameters > 3) interpreter.defineLocal(first + 3, a3);
+        }
+        // Parameters a closure captures move into cells of their own.
+        for(int slot : declaration.capturedParameters) {
+            interpreter.defineCell(slot, interpreter.getLocal(slot));
         }
 
-        if(isInitializer) return closure.getAt(0, "this");
+        int outerBackEdges = interpreter.backEdges;
+        FeinFunction outerFunction = interpreter.activeFunction;
+        interpreter.backEdges = 0;
+        interpreter.activeFunction = this;
+        Completion completion = body != null ? interpreter.executeBlock(body, upvalues)
+                : interpreter.executeBlock(declaration.body, upvalues);
+        backEdges += interpreter.backEdges;
+        interpreter.backEdges = outerBackEdges;
+        interpreter.activeFunction = outerFunction;
+
+        interpreter.exitFrame(previousFrame);
+        return completion;
+    }
+
+    /**
+     * Method to run the rest of the active call compiled, from the next iteration of
+     * a loop that has run often enough in the interpreter
+     *
+     * @param interpreter Interpreter
+     * @param loop Stmt the Stmt.For or Stmt.While
+     *
+     * @return Completion of the call, null when the function can't be compiled
+     */
+    Completion resume(Interpreter interpreter, Stmt loop) {
+        if(compiled == null && compilable) compile(interpreter);
+        if(compiled == null) return null;
+
+        Object result = compiled.resume(interpreter, upvalues, loop);
+        if(result == Interpreter.TAIL_CALL) return Completion.TAIL_CALL;
+        return interpreter.completeReturn(result);
+    }
 
-        return null;
+    private void compile(Interpreter interpreter) {
+        compiled = JitCompiler.compile(declaration, interpreter.globals);
+        compilable = compiled != null;
     }
 
     @Override
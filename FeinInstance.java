@@ -1,27 +1,38 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Class for FeinInstance runtime representation of lox
+ * Class for FeinInstance runtime representation of lox.
+ * Fields are kept in an array laid out by the instance's shape.
  */
 public class FeinInstance {
     private FeinClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] values;
 
     FeinInstance(FeinClass klass){
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.values = new Object[klass.fieldCount];
     }
 
     /**
      * Method to get property from instance
      *
      * @param name Token
+     * @param cache PropertyCache of the accessing node
      *
      * @return Object
      */
-    Object get(Token name) {
-        if(fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    Object get(Token name, PropertyCache cache) {
+        int entry = cache.find(shape);
+        if(entry != -1) {
+            return values[cache.slot(entry)];
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        if(slot != -1) {
+            cache.add(shape, slot, shape);
+            return values[slot];
         }
 
         FeinFunction method = klass.findMethod(name.lexeme);
@@ -30,14 +41,64 @@ public class FeinInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    /**
+     * Method to find the method a property names, unless a field of that name shadows it
+     *
+     * @param name Token
+     * @param cache CallCache of the calling node
+     *
+     * @return FeinFunction, null when there is a field or no such method
+     */
+    FeinFunction findMethod(Token name, CallCache cache) {
+        // The shape covers both the class and the fields that could shadow a method.
+        int slot = cache.methodSlot(shape);
+        if(slot != -1) return klass.method(slot);
+
+        if(shape.slotOf(name.lexeme) != -1) return null;
+        slot = klass.methodSlot(name.lexeme);
+        if(slot == -1) return null;
+        cache.addMethod(shape, slot);
+        return klass.method(slot);
+    }
+
     /**
      * Method to set the value to the field in the instance
      *
      * @param name Token
      * @param value Object
+     * @param cache PropertyCache of the assigning node
+     */
+    void set(Token name, Object value, PropertyCache cache) {
+        int slot;
+        Shape next;
+        int entry = cache.find(shape);
+        if(entry != -1) {
+            slot = cache.slot(entry);
+            next = cache.transition(entry);
+        } else {
+            slot = shape.slotOf(name.lexeme);
+            next = shape;
+            if(slot == -1) {
+                slot = shape.size;
+                next = shape.withField(name.lexeme);
+            }
+            cache.add(shape, slot, next);
+        }
+
+        if(slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+        }
+        values[slot] = value;
+        shape = next;
+    }
+
+    /**
+     * Method to get the number of fields the instance has
+     *
+     * @return int
      */
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    int fieldCount() {
+        return shape.size;
     }
 
     @Override
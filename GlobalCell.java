@@ -0,0 +1,108 @@
+/**
+ * Class for the storage of one global variable. The global environment keeps a
+ * cell per name, and a node reading or assigning a global holds on to its cell
+ * once bound, so the access is a field load instead of a lookup by name. A cell
+ * is created the first time its name is used, and stays undefined until a
+ * declaration defines the variable.
+ *
+ * A number the interpreter stores through its unboxed path is kept in a double
+ * field, and only boxed the first time a reader asks for the boxed value, so a
+ * loop updating a global number allocates nothing for it.
+ */
+final class GlobalCell {
+    private static final Object UNDEFINED = new Object();
+    // value of a cell holding its number in the number field
+    private static final Object UNBOXED = new Object();
+
+    private Object value = UNDEFINED;
+    private double number;
+
+    /**
+     * Method to get the value of the global variable
+     *
+     * @param name Token
+     * @return Object
+     */
+    Object get(Token name) {
+        Object current = value;
+        if(current == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable'"+ name.lexeme + "'.");
+        }
+        if(current == UNBOXED) {
+            // Box once, readers after this one get the same box.
+            current = number;
+            value = current;
+        }
+
+        return current;
+    }
+
+    /**
+     * Method to get the value of the global variable as a number, without boxing it
+     *
+     * @param name Token
+     * @return double
+     * @throws NumberMiss when the value is not a number
+     */
+    double getNumber(Token name) {
+        Object current = value;
+        if(current == UNBOXED) return number;
+        if(current instanceof Double) return (double)current;
+
+        // get reports an undefined variable.
+        throw new NumberMiss(get(name));
+    }
+
+    /**
+     * Method to check if the global variable holds an unboxed number
+     *
+     * @return boolean
+     */
+    boolean holdsNumber() {
+        return value == UNBOXED;
+    }
+
+    /**
+     * Method to assign the global variable
+     *
+     * @param name Token
+     * @param value Object
+     */
+    void assign(Token name, Object value) {
+        if(this.value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+
+        this.value = value;
+    }
+
+    /**
+     * Method to assign a number to the global variable, without boxing it
+     *
+     * @param name Token
+     * @param number double
+     */
+    void assignNumber(Token name, double number) {
+        if(this.value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+
+        this.number = number;
+        this.value = UNBOXED;
+    }
+
+    /**
+     * Method to define the global variable, or redefine it
+     *
+     * @param value Object
+     */
+    void define(Object value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        if(value == UNBOXED) return String.valueOf(number);
+        return value == UNDEFINED ? "<undefined>" : String.valueOf(value);
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -6,11 +7,35 @@ import java.util.Map;
 /**
  * Class for interpreter
  */
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion>{
 
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // cells of the variables the running function captured, see FeinFunction
+    private Cell[] upvalues = NO_UPVALUES;
+
+    // value stack holding the locals, or the cells of the locals closures
+    // capture, one frame per active call starting at frameBase
+    private Object[] stack = new Object[256];
+    // slots tagged UNBOXED hold their number in the same index of numbers
+    private double[] numbers = new double[256];
+    private int frameBase = 0;
+    private int stackTop = 0;
+
+    // value of the return statement being completed, see Completion
+    private Object returnValue = null;
+    // call a TAIL_CALL completion hands to the returning function
+    FeinFunction tailFunction = null;
+    FeinInstance tailReceiver = null;
+    List<Object> tailArguments = null;
+    // loop iterations run by the active interpreted call and its function, see FeinFunction
+    int backEdges = 0;
+    FeinFunction activeFunction = null;
+
+    static final Object TAIL_CALL = new Object();
+
+    private static final Object UNBOXED = new Object();
+
+    private static final Cell[] NO_UPVALUES = new Cell[0];
 
     Interpreter() {
         globals.define("clock", new FeinCallable() {
@@ -40,10 +65,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 execute(statement);
             }
         } catch (RuntimeError error){
-            Fein.runtimeError(error);
+            recover(error);
         }
     }
 
+    /**
+     * Method to interpret a program compiled by the ClosureCompiler
+     *
+     * @param program ClosureCompiler.StmtNode
+     */
+    void interpret(ClosureCompiler.StmtNode program){
+        try{
+            program.execute(this);
+        } catch (RuntimeError error){
+            recover(error);
+        }
+    }
+
+    /**
+     * Method to report a runtime error and reset to the top level
+     *
+     * @param error RuntimeError
+     */
+    private void recover(RuntimeError error) {
+        Fein.runtimeError(error);
+
+        // The error skipped every frame exit on the way out.
+        upvalues = NO_UPVALUES;
+        Arrays.fill(stack, 0, stackTop, null);
+        frameBase = 0;
+        stackTop = 0;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr){
         return expr.value;
@@ -63,129 +116,168 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return negate(expr, right);
         }
 
         // Unreachable.
         return null;
     }
 
+    /**
+     * Method to negate a number operand
+     *
+     * @param expr Expr.Unary
+     * @param right Object
+     * @return Object
+     */
+    static Object negate(Expr.Unary expr, Object right) {
+        checkNumberOperand(expr.operator, right);
+        return -(double)right;
+    }
+
     /**
      * Method to validate number operand
      *
      * @param operator Token
      * @param operand Object
      */
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if(operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number");
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr){
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type){
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
+        // The node's current specialization performs the operator, see BinaryNode.
+        return expr.specialization.evaluate(this, expr);
+    }
 
-                if (left instanceof String && right instanceof String) {
-                    return left + (String)right;
-                }
+    /**
+     * Method to visit expression statement
+     *
+     * @param stmt Stmt.Expression
+     * @return Completion
+     */
+    @Override
+    public Completion visitExpressionStmt(Stmt.Expression stmt){
+        evaluateForEffect(stmt.expression);
+        return Completion.NORMAL;
+    }
 
-                if( left instanceof String && right instanceof Double){
-                    return left + stringify(right);
+    /**
+     * Method to evaluate an expression whose value is dropped
+     *
+     * @param expr Expr
+     */
+    private void evaluateForEffect(Expr expr) {
+        // The value of an assignment is dropped here, so a number stored
+        // into a frame slot never has to be boxed.
+        if(expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            if(assign.stackSlot != -1 && holdsNumber(assign.value)) {
+                int index = frameBase + assign.stackSlot;
+                try {
+                    double value = evaluateNumber(assign.value);
+                    numbers[index] = value;
+                    stack[index] = UNBOXED;
+                } catch (NumberMiss miss) {
+                    stack[index] = miss.value;
                 }
+                return;
+            }
 
-                if( left instanceof Double && right instanceof String ){
-                    return stringify(left) + right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                if(right instanceof Double && (right.toString().startsWith("0"))){
-                    throw new RuntimeError(expr.operator, "Cannot divide by 0.");
-                }
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+            // Globals keep numbers unboxed too, see GlobalCell.
+            if(assign.stackSlot == -1 && assign.cellSlot == -1 && assign.upvalue == -1 &&
+                    holdsNumber(assign.value)) {
+                assignGlobalNumber(assign);
+                return;
+            }
         }
 
-
-        // Unreachable.
-        return null;
+        evaluate(expr);
     }
 
     /**
-     * Method to visit expression statement
+     * Method to make an assignment to a global evaluating its value as a number,
+     * storing it unboxed unless it turns out not to be a number
      *
-     * @param stmt Stmt.Expression
-     * @return Void
+     * @param assign Expr.Assign
      */
-    @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
-        evaluate(stmt.expression);
-        return null;
+    private void assignGlobalNumber(Expr.Assign assign) {
+        double value;
+        try {
+            value = evaluateNumber(assign.value);
+        } catch (NumberMiss miss) {
+            if(assign.global == null) assign.global = globals.cell(assign.name.lexeme);
+            assign.global.assign(assign.name, miss.value);
+            return;
+        }
+
+        if(assign.global == null) assign.global = globals.cell(assign.name.lexeme);
+        assign.global.assignNumber(assign.name, value);
     }
 
     /**
      * Method to visit print stmt
      *
      * @param stmt Stmt.Print
-     * @return Void
+     * @return Completion
      */
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt){
+    public Completion visitPrintStmt(Stmt.Print stmt){
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Completion visitReturnStmt(Stmt.Return stmt){
         Object value = null;
-        if(stmt.value != null) value = evaluate(stmt.value);
+        if(stmt.tailCall) {
+            value = call((Expr.Call) stmt.value, true);
+            if(value == TAIL_CALL) return Completion.TAIL_CALL;
+        } else if(stmt.value != null) {
+            value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        return completeReturn(value);
+    }
+
+    /**
+     * Method to complete a return with a value for the calling function to take
+     *
+     * @param value Object
+     * @return Completion
+     */
+    Completion completeReturn(Object value) {
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     /**
      * Method to evaluate variable statements
      *
      * @param stmt Stmt.Var
-     * @return Void
+     * @return Completion
      */
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if(stmt.stackSlot != -1 && stmt.initializer != null && producesNumber(stmt.initializer)) {
+            try {
+                defineNumber(stmt.stackSlot, evaluateNumber(stmt.initializer));
+            } catch (NumberMiss miss) {
+                defineLocal(stmt.stackSlot, miss.value);
+            }
+            return Completion.NORMAL;
+        }
+
         Object value = null;
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        declare(stmt.name, stmt.stackSlot, stmt.cellSlot, value);
+        return Completion.NORMAL;
     }
 
     /**
@@ -196,24 +288,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      */
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
-        return lookUpVariable(expr.name, expr);
-    }
-
-    /**
-     * Method to look up variable
-     *
-     * @param name Token
-     * @param expr Expr
-     *
-     * @return Object
-     */
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
+        if(expr.stackSlot != -1) {
+            int index = frameBase + expr.stackSlot;
+            if(stack[index] == UNBOXED) return numbers[index];
+            return stack[index];
+        }
+        if(expr.cellSlot != -1) {
+            return ((Cell) stack[frameBase + expr.cellSlot]).value;
         }
+        if(expr.upvalue != -1) {
+            return upvalues[expr.upvalue].value;
+        }
+        if(expr.global == null) expr.global = globals.cell(expr.name.lexeme);
+        return expr.global.get(expr.name);
     }
 
     /**
@@ -226,30 +313,63 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     public Object visitAssignExpr(Expr.Assign expr){
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if(expr.stackSlot != -1) {
+            stack[frameBase + expr.stackSlot] = value;
+        } else if(expr.cellSlot != -1) {
+            ((Cell) stack[frameBase + expr.cellSlot]).value = value;
+        } else if(expr.upvalue != -1) {
+            upvalues[expr.upvalue].value = value;
         } else {
-            globals.assign(expr.name, value);
+            if(expr.global == null) expr.global = globals.cell(expr.name.lexeme);
+            expr.global.assign(expr.name, value);
         }
         return value;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt){
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt){
+        // Locals of a block live in the current frame.
+        Completion completion = Completion.NORMAL;
+        for(Stmt statement : stmt.statements){
+            completion = execute(statement);
+            if(completion != Completion.NORMAL) break;
+        }
+
+        if(stmt.releaseSlot != -1) releaseScope(stmt.releaseSlot);
+        return completion;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt){
+    public Completion visitForStmt(Stmt.For stmt){
+        // The loop variable is declared once for the whole loop.
+        if(stmt.initializer != null) execute(stmt.initializer);
+
+        Completion completion = Completion.NORMAL;
+        while(stmt.condition == null || isTruthy(evaluate(stmt.condition))){
+            completion = execute(stmt.body);
+            if(completion != Completion.NORMAL) break;
+            if(stmt.increment != null) evaluateForEffect(stmt.increment);
+
+            Completion resumed = backEdge(stmt);
+            if(resumed != null) {
+                completion = resumed;
+                break;
+            }
+        }
+
+        if(stmt.releaseSlot != -1) releaseScope(stmt.releaseSlot);
+        return completion;
+    }
+
+    @Override
+    public Completion visitIfStmt(Stmt.If stmt){
         if(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if(stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
@@ -266,42 +386,233 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt){
+    public Completion visitWhileStmt(Stmt.While stmt){
         while(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if(completion != Completion.NORMAL) return completion;
+
+            Completion resumed = backEdge(stmt);
+            if(resumed != null) return resumed;
         }
 
-        return null;
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Method to count an iteration of a loop of the active call. Once the call has
+     * looped often enough, the rest of it runs compiled from the next iteration.
+     *
+     * @param loop Stmt the Stmt.For or Stmt.While
+     *
+     * @return Completion of the call when it ran compiled, null to keep looping here
+     */
+    Completion backEdge(Stmt loop) {
+        if(++backEdges != JitCompiler.BACK_EDGE_THRESHOLD || activeFunction == null) return null;
+        return activeFunction.resume(this, loop);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr){
-        Object callee = evaluate(expr.callee);
+        return call(expr, false);
+    }
+
+    /**
+     * Interface for evaluating the arguments of a call one at a time, in order, so
+     * the tree walker and the closure tier share the code making calls
+     */
+    interface CallArguments {
+        Object evaluate(Interpreter interpreter, Expr.Call expr, int index);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for(Expr argument : expr.arguments){
-            arguments.add(evaluate(argument));
+    private static final CallArguments ARGUMENTS =
+            (interpreter, expr, index) -> interpreter.evaluate(expr.arguments.get(index));
+
+    /**
+     * Method to evaluate a call. A call in tail position to a Fein function is not
+     * made here but left in the tail call fields for the returning function.
+     *
+     * @param expr Expr.Call
+     * @param tail boolean
+     *
+     * @return Object the result, or TAIL_CALL when the call was deferred
+     */
+    private Object call(Expr.Call expr, boolean tail){
+        if(expr.callee instanceof Expr.Get) {
+            return callMethod(evaluate(((Expr.Get) expr.callee).object), expr, ARGUMENTS, tail);
         }
+        return call(evaluate(expr.callee), null, expr, ARGUMENTS, tail);
+    }
+
+    /**
+     * Method to make a call whose callee is a property of an object, once the
+     * object is evaluated
+     *
+     * @param object Object
+     * @param expr Expr.Call with an Expr.Get callee
+     * @param arguments CallArguments evaluating the argument expressions
+     * @param tail boolean
+     *
+     * @return Object the result, or TAIL_CALL when the call was deferred
+     */
+    Object callMethod(Object object, Expr.Call expr, CallArguments arguments, boolean tail){
+        // A method called straight off an instance runs with the instance as its
+        // receiver, it is only bound when its value is used some other way.
+        Expr.Get get = (Expr.Get) expr.callee;
+        if(object instanceof FeinInstance) {
+            FeinFunction method = ((FeinInstance) object).findMethod(get.name, expr.cache);
+            if(method != null) return call(method, (FeinInstance) object, expr, arguments, tail);
+        }
+        return call(getProperty(get, object), null, expr, arguments, tail);
+    }
+
+    /**
+     * Method to evaluate the arguments of a call and make it
+     *
+     * @param callee Object
+     * @param receiver FeinInstance the callee is a method of, or null
+     * @param expr Expr.Call
+     * @param arguments CallArguments evaluating the argument expressions
+     * @param tail boolean
+     *
+     * @return Object the result, or TAIL_CALL when the call was deferred
+     */
+    Object call(Object callee, FeinInstance receiver, Expr.Call expr, CallArguments arguments, boolean tail){
+        // Calls with few arguments pass them along directly, without a list.
+        int count = expr.arguments.size();
+        if(!tail && count <= FeinFunction.MAX_DIRECT) {
+            Object a0 = count > 0 ? arguments.evaluate(this, expr, 0) : null;
+            Object a1 = count > 1 ? arguments.evaluate(this, expr, 1) : null;
+            Object a2 = count > 2 ? arguments.evaluate(this, expr, 2) : null;
+            Object a3 = count > 3 ? arguments.evaluate(this, expr, 3) : null;
+            return dispatch(callee, receiver, count, a0, a1, a2, a3, expr);
+        }
+
+        List<Object> values = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            values.add(arguments.evaluate(this, expr, i));
+        }
+
+        return dispatch(callee, receiver, values, expr, tail);
+    }
+
+    /**
+     * Method to check and make a call whose callee and arguments are evaluated
+     *
+     * @param callee Object
+     * @param receiver FeinInstance the callee is a method of, or null
+     * @param arguments List<Object>
+     * @param expr Expr.Call making the call
+     * @param tail boolean
+     *
+     * @return Object the result, or TAIL_CALL when the call was deferred
+     */
+    Object dispatch(Object callee, FeinInstance receiver, List<Object> arguments, Expr.Call expr, boolean tail) {
+        if(callee instanceof FeinFunction) {
+            FeinFunction function = (FeinFunction) callee;
+            checkCall(function, function.declaration, arguments.size(), expr);
+            if(tail) {
+                tailFunction = function;
+                tailReceiver = receiver;
+                tailArguments = arguments;
+                return TAIL_CALL;
+            }
+            return function.invoke(this, receiver != null ? receiver : function.receiver, arguments);
+        }
+        if(callee instanceof FeinClass) {
+            FeinClass klass = (FeinClass) callee;
+            checkCall(klass, klass.rootShape, arguments.size(), expr);
+            return klass.call(this, arguments);
+        }
+
+        return checkCall(callee, callee, arguments.size(), expr).call(this, arguments);
+    }
+
+    /**
+     * Method to check and make a call with up to four evaluated arguments. Fein
+     * functions and classes are called directly rather than through FeinCallable.
+     *
+     * @param callee Object
+     * @param receiver FeinInstance the callee is a method of, or null
+     * @param count int number of arguments
+     * @param a0 Object
+     * @param a1 Object
+     * @param a2 Object
+     * @param a3 Object
+     * @param expr Expr.Call making the call
+     *
+     * @return Object
+     */
+    Object dispatch(Object callee, FeinInstance receiver, int count,
+                    Object a0, Object a1, Object a2, Object a3, Expr.Call expr) {
+        if(callee instanceof FeinFunction) {
+            FeinFunction function = (FeinFunction) callee;
+            checkCall(function, function.declaration, count, expr);
+            return function.invoke(this, receiver != null ? receiver : function.receiver, a0, a1, a2, a3, null);
+        }
+        if(callee instanceof FeinClass) {
+            FeinClass klass = (FeinClass) callee;
+            checkCall(klass, klass.rootShape, count, expr);
+            return klass.construct(this, a0, a1, a2, a3);
+        }
+
+        FeinCallable function = checkCall(callee, callee, count, expr);
+        switch (count) {
+            case 0: return function.call0(this);
+            case 1: return function.call1(this, a0);
+            case 2: return function.call2(this, a0, a1);
+            case 3: return function.call3(this, a0, a1, a2);
+            default: return function.call4(this, a0, a1, a2, a3);
+        }
+    }
+
+    /**
+     * Method to check a callee can be called with the number of arguments given,
+     * unless a callee with the same target already passed the checks at the calling
+     * node. The target is what fixes the arity, the declaration of a Fein function,
+     * the root shape of a class and any other callable itself, see CallCache.
+     *
+     * @param callee Object
+     * @param target Object
+     * @param count int
+     * @param expr Expr.Call
+     *
+     * @return FeinCallable
+     */
+    private static FeinCallable checkCall(Object callee, Object target, int count, Expr.Call expr) {
+        if(expr.cache.verified(target)) return (FeinCallable) callee;
 
+        Token paren = expr.paren;
         if(!(callee instanceof FeinCallable)){
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
         FeinCallable function = (FeinCallable) callee;
 
         // Arity is the fancy term for the number of arguments a function or operation expects.
-        if(arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " +
+        if(count != function.arity()){
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    count + ".");
         }
-        return function.call(this, arguments);
+        expr.cache.verify(target);
+        return function;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    /**
+     * Method to read a property of an evaluated object
+     *
+     * @param expr Expr.Get
+     * @param object Object
+     *
+     * @return Object
+     */
+    static Object getProperty(Expr.Get expr, Object object) {
         if(object instanceof FeinInstance) {
-            return ((FeinInstance) object).get(expr.name);
+            return ((FeinInstance) object).get(expr.name, expr.cache);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -309,22 +620,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        Object object = evaluate(expr.object);
+        FeinInstance object = fieldOwner(expr, evaluate(expr.object));
+
+        Object value = evaluate(expr.value);
+        object.set(expr.name, value, expr.cache);
+        return value;
+    }
 
+    /**
+     * Method to check the object of a property assignment is an instance
+     *
+     * @param expr Expr.Set
+     * @param object Object
+     *
+     * @return FeinInstance
+     */
+    static FeinInstance fieldOwner(Expr.Set expr, Object object) {
         if(!(object instanceof FeinInstance)) {
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
-        Object value = evaluate(expr.value);
-        ((FeinInstance)object).set(expr.name, value);
-        return value;
+        return (FeinInstance) object;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        FeinClass superclass = (FeinClass) environment.getAt(distance, "super");
-        FeinInstance object = (FeinInstance) environment.getAt(distance - 1, "this");
+        // Only methods use "super", and they all capture it.
+        FeinClass superclass = (FeinClass) upvalues[expr.upvalue].value;
+        FeinInstance object = (FeinInstance) visitThisExpr(expr.receiver);
 
         FeinFunction method = superclass.findMethod(expr.method.lexeme);
         if(method == null) {
@@ -336,18 +659,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        if(expr.stackSlot != -1) {
+            return stack[frameBase + expr.stackSlot];
+        }
+        if(expr.cellSlot != -1) {
+            return ((Cell) stack[frameBase + expr.cellSlot]).value;
+        }
+        return upvalues[expr.upvalue].value;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt){
-        FeinFunction function = new FeinFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt){
+        // A function calling itself captures its own cell, so the cell comes first.
+        Cell cell = stmt.cellSlot != -1 ? defineCell(stmt.cellSlot, null) : null;
+        FeinFunction function = new FeinFunction(stmt, capture(stmt), false);
+        if(cell != null) {
+            cell.value = function;
+        } else {
+            declare(stmt.name, stmt.stackSlot, -1, function);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if(stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -355,27 +690,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
-
+        // Methods using the class name capture its cell, so the cell comes first.
+        Cell cell = stmt.cellSlot != -1 ? defineCell(stmt.cellSlot, null) : null;
         if(stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            defineCell(stmt.superSlot, superclass);
         }
 
         Map<String, FeinFunction> methods = new HashMap<>();
         for(Stmt.Function method : stmt.methods) {
-            FeinFunction function = new FeinFunction(method, environment, method.name.lexeme.equals("init"));
+            FeinFunction function = new FeinFunction(method, capture(method), method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         FeinClass klass = new FeinClass(stmt.name.lexeme, (FeinClass)superclass, methods);
 
-        if(superclass != null) {
-            environment = environment.enclosing;
+        // Nothing can run between creating the methods and this point, so defining
+        // the name only once the class exists is equivalent to defining it up front.
+        if(cell != null) {
+            cell.value = klass;
+        } else {
+            declare(stmt.name, stmt.stackSlot, -1, klass);
         }
-
-        environment.assign(stmt.name, klass);
-        return null;
+        return Completion.NORMAL;
     }
 
     /**
@@ -385,7 +721,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      * @param left Object
      * @param right Object
      */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if(left instanceof Double && right instanceof Double) return;
 
         throw new RuntimeError(operator, "Operands must be numbers");
@@ -397,7 +733,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      *
      * @return boolean
      */
-    private boolean isTruthy(Object object){
+    static boolean isTruthy(Object object){
         if(object == null ) return false;
         if(object instanceof  Boolean) return  (boolean) object;
         return true;
@@ -410,10 +746,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      * @param b Object
      * @return boolean
      */
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
+        // A rope is compared by its text.
+        if (a instanceof Rope) a = a.toString();
+        if (b instanceof Rope) b = b.toString();
         return a.equals(b);
     }
 
@@ -424,7 +763,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      *
      * @return String
      */
-    private String stringify(Object object){
+    static String stringify(Object object){
         if(object == null) return "nil";
 
         if(object instanceof Double){
@@ -445,45 +784,314 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
      * @param expr Expr
      * @return Object
      */
-    private Object evaluate(Expr expr){
+    Object evaluate(Expr expr){
         return expr.accept(this);
     }
 
+    /**
+     * Method to evaluate an expression whose value is used as a number, keeping
+     * number literals, unboxed frame slots and number specialized arithmetic unboxed.
+     * Anything else goes through evaluate and is unboxed afterwards.
+     *
+     * @param expr Expr
+     * @return double
+     * @throws NumberMiss when the value is not a number, the caller falls back to the boxed value
+     */
+    double evaluateNumber(Expr expr) {
+        if(expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if(binary.specialization instanceof BinaryNode.NumberArithmetic) {
+                return ((BinaryNode.NumberArithmetic) binary.specialization).evaluateNumber(this, binary);
+            }
+        } else if(expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if(variable.stackSlot != -1) {
+                int index = frameBase + variable.stackSlot;
+                Object value = stack[index];
+                if(value == UNBOXED) return numbers[index];
+                if(value instanceof Double) return (double)value;
+                throw new NumberMiss(value);
+            }
+            if(variable.cellSlot == -1 && variable.upvalue == -1) {
+                if(variable.global == null) variable.global = globals.cell(variable.name.lexeme);
+                return variable.global.getNumber(variable.name);
+            }
+        } else if(expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        } else if(expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.MINUS) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            try {
+                return -evaluateNumber(unary.right);
+            } catch (NumberMiss miss) {
+                throw new RuntimeError(unary.operator, "Operand must be a number");
+            }
+        }
+
+        Object value = evaluate(expr);
+        if(value instanceof Double) return (double)value;
+        throw new NumberMiss(value);
+    }
+
+    /**
+     * Method to check if an expression is known to produce a number, from its
+     * shape and the operand types its binary nodes have seen so far
+     *
+     * @param expr Expr
+     * @return boolean
+     */
+    private static boolean producesNumber(Expr expr) {
+        if(expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if(expr instanceof Expr.Binary) {
+            return ((Expr.Binary) expr).specialization instanceof BinaryNode.NumberArithmetic;
+        }
+        if(expr instanceof Expr.Grouping) return producesNumber(((Expr.Grouping) expr).expression);
+        if(expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.MINUS && producesNumber(unary.right);
+        }
+        return false;
+    }
+
+    /**
+     * Method to check if an expression is worth evaluating as a number for a store,
+     * either by its shape or because it reads a variable holding an unboxed number
+     *
+     * @param expr Expr
+     * @return boolean
+     */
+    private boolean holdsNumber(Expr expr) {
+        if(!(expr instanceof Expr.Variable)) return producesNumber(expr);
+
+        Expr.Variable variable = (Expr.Variable) expr;
+        if(variable.stackSlot != -1) return stack[frameBase + variable.stackSlot] == UNBOXED;
+        return variable.global != null && variable.global.holdsNumber();
+    }
+
     /**
      * Method to execute statements
      *
      * @param stmt Stmt
+     * @return Completion
      */
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Completion execute(Stmt stmt){
+        return stmt.accept(this);
     }
 
     /**
-     * Method to execute block statments
+     * Method to take the value of the completed return statement, clearing it so
+     * it does not keep the value alive
      *
-     * @param statements List<Stmt>
-     * @param environment Environment
+     * @return Object
      */
-    void executeBlock(List<Stmt> statements, Environment environment){
-        Environment previous = this.environment;
-        try{
-            this.environment = environment;
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
 
-            for(Stmt statement : statements){
-                execute(statement);
-            }
-        } finally {
-            this.environment = previous;
+    /**
+     * Method to define a variable in a frame slot, in a cell in a frame slot, or as a global
+     *
+     * @param name Token
+     * @param stackSlot int
+     * @param cellSlot int
+     * @param value Object
+     */
+    void declare(Token name, int stackSlot, int cellSlot, Object value) {
+        if(stackSlot != -1) {
+            defineLocal(stackSlot, value);
+        } else if(cellSlot != -1) {
+            defineCell(cellSlot, value);
+        } else {
+            globals.define(name.lexeme, value);
         }
     }
 
     /**
-     * Method to resolve the expr
+     * Method to store a new cell for a captured local in a slot of the current frame
      *
-     * @param expr Expr
-     * @param depth int
+     * @param cellSlot int
+     * @param value Object
+     *
+     * @return Cell
      */
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    Cell defineCell(int cellSlot, Object value) {
+        Cell cell = new Cell(value);
+        defineLocal(cellSlot, cell);
+        return cell;
+    }
+
+    /**
+     * Method to get the cell of a captured local from a slot of the current frame
+     *
+     * @param cellSlot int
+     * @return Cell
+     */
+    Cell getCell(int cellSlot) {
+        return (Cell) stack[frameBase + cellSlot];
+    }
+
+    /**
+     * Method to get the cell of a variable the running function captured
+     *
+     * @param index int
+     * @return Cell
+     */
+    Cell getUpvalue(int index) {
+        return upvalues[index];
+    }
+
+    /**
+     * Method to collect the cells of the variables a function declared here captures,
+     * from the current frame or from the upvalues of the running function
+     *
+     * @param declaration Stmt.Function
+     *
+     * @return Cell[]
+     */
+    Cell[] capture(Stmt.Function declaration) {
+        int[] indexes = declaration.upvalueIndexes;
+        if(indexes.length == 0) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[indexes.length];
+        for(int i = 0; i < indexes.length; i++) {
+            cells[i] = declaration.upvalueLocals[i] ? getCell(indexes[i]) : upvalues[indexes[i]];
+        }
+        return cells;
+    }
+
+    /**
+     * Method to read a local from a slot of the current frame
+     *
+     * @param stackSlot int
+     * @return Object
+     */
+    Object getLocal(int stackSlot) {
+        int index = frameBase + stackSlot;
+        if(stack[index] == UNBOXED) return numbers[index];
+        return stack[index];
+    }
+
+    /**
+     * Method to assign a local already defined in a slot of the current frame
+     *
+     * @param stackSlot int
+     * @param value Object
+     */
+    void assignLocal(int stackSlot, Object value) {
+        stack[frameBase + stackSlot] = value;
+    }
+
+    /**
+     * Method to store a local in a slot of the current frame
+     *
+     * @param stackSlot int
+     * @param value Object
+     */
+    void defineLocal(int stackSlot, Object value) {
+        int index = frameBase + stackSlot;
+
+        // Function frames are reserved on entry, top level blocks grow the stack as they go.
+        if(index >= stackTop) reserve(index + 1);
+        stack[index] = value;
+    }
+
+    /**
+     * Method to store a number unboxed in a slot of the current frame
+     *
+     * @param stackSlot int
+     * @param value double
+     */
+    private void defineNumber(int stackSlot, double value) {
+        int index = frameBase + stackSlot;
+
+        if(index >= stackTop) reserve(index + 1);
+        numbers[index] = value;
+        stack[index] = UNBOXED;
+    }
+
+    /**
+     * Method to push a frame for a function call on the value stack
+     *
+     * @param size int
+     *
+     * @return int the frame base of the caller, to be handed back to exitFrame
+     */
+    int enterFrame(int size) {
+        int previous = frameBase;
+        frameBase = stackTop;
+        reserve(frameBase + size);
+        return previous;
+    }
+
+    /**
+     * Method to pop the current frame, clearing it so it does not keep values alive
+     *
+     * @param previous int
+     */
+    void exitFrame(int previous) {
+        Arrays.fill(stack, frameBase, stackTop, null);
+        stackTop = frameBase;
+        frameBase = previous;
+    }
+
+    /**
+     * Method to release the slots of a top level scope that ended, clearing them so
+     * they do not keep values alive. Scopes inside functions are released with the frame.
+     *
+     * @param releaseSlot int first slot of the scope
+     */
+    void releaseScope(int releaseSlot) {
+        int base = frameBase + releaseSlot;
+        if(base < stackTop) {
+            Arrays.fill(stack, base, stackTop, null);
+            stackTop = base;
+        }
+    }
+
+    private void reserve(int top) {
+        if(top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+            numbers = Arrays.copyOf(numbers, stack.length);
+        }
+        stackTop = top;
+    }
+
+    /**
+     * Method to execute the body of a function with the upvalues of its closure
+     *
+     * @param statements List<Stmt>
+     * @param upvalues Cell[]
+     * @return Completion
+     */
+    Completion executeBlock(List<Stmt> statements, Cell[] upvalues){
+        Cell[] previous = this.upvalues;
+        this.upvalues = upvalues;
+
+        Completion completion = Completion.NORMAL;
+        for(Stmt statement : statements){
+            completion = execute(statement);
+            if(completion != Completion.NORMAL) break;
+        }
+
+        this.upvalues = previous;
+        return completion;
+    }
+
+    /**
+     * Method to execute the body of a function compiled by the ClosureCompiler
+     *
+     * @param body ClosureCompiler.StmtNode
+     * @param upvalues Cell[]
+     * @return Completion
+     */
+    Completion executeBlock(ClosureCompiler.StmtNode body, Cell[] upvalues){
+        Cell[] previous = this.upvalues;
+        this.upvalues = upvalues;
+
+        Completion completion = body.execute(this);
+
+        this.upvalues = previous;
+        return completion;
     }
 }
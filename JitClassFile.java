@@ -0,0 +1,222 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for writing the class files the JitCompiler loads. It only supports what the
+ * compiler needs, a constant pool, fields, and methods with a Code attribute. The
+ * class file version is 49, so the JVM infers the types of stack frames itself and
+ * no StackMapTable has to be written.
+ */
+class JitClassFile {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+    private int fieldCount = 0;
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private int methodCount = 0;
+
+    /**
+     * Method to add a Utf8 constant
+     *
+     * @param text String
+     *
+     * @return int the constant pool index
+     */
+    int utf8(String text) {
+        Integer index = entries.get("U" + text);
+        if(index != null) return index;
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        pool.write(1);
+        u2(pool, bytes.length);
+        pool.write(bytes, 0, bytes.length);
+        return add("U" + text);
+    }
+
+    /**
+     * Method to add a Class constant
+     *
+     * @param name String internal name of the class
+     *
+     * @return int the constant pool index
+     */
+    int classRef(String name) {
+        Integer index = entries.get("C" + name);
+        if(index != null) return index;
+
+        int nameIndex = utf8(name);
+        pool.write(7);
+        u2(pool, nameIndex);
+        return add("C" + name);
+    }
+
+    /**
+     * Method to add a Double constant, which takes two entries of the pool
+     *
+     * @param value double
+     *
+     * @return int the constant pool index
+     */
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = entries.get("D" + bits);
+        if(index != null) return index;
+
+        pool.write(6);
+        u4(pool, (int) (bits >>> 32));
+        u4(pool, (int) bits);
+        int added = add("D" + bits);
+        poolCount++;
+        return added;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(11, owner, name, descriptor);
+    }
+
+    /**
+     * Method to add a field, method or interface method reference
+     *
+     * @param tag int
+     * @param owner String
+     * @param name String
+     * @param descriptor String
+     *
+     * @return int the constant pool index
+     */
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if(index != null) return index;
+
+        int classIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        pool.write(tag);
+        u2(pool, classIndex);
+        u2(pool, nameAndType);
+        return add(key);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + ":" + descriptor;
+        Integer index = entries.get(key);
+        if(index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        pool.write(12);
+        u2(pool, nameIndex);
+        u2(pool, descriptorIndex);
+        return add(key);
+    }
+
+    private int add(String key) {
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /**
+     * Method to add a field
+     *
+     * @param access int
+     * @param name String
+     * @param descriptor String
+     */
+    void addField(int access, String name, String descriptor) {
+        u2(fields, access);
+        u2(fields, utf8(name));
+        u2(fields, utf8(descriptor));
+        u2(fields, 0);
+        fieldCount++;
+    }
+
+    /**
+     * Method to add a method with its code
+     *
+     * @param access int
+     * @param name String
+     * @param descriptor String
+     * @param code byte[]
+     * @param length int number of bytes of code used
+     * @param maxStack int
+     * @param maxLocals int
+     */
+    void addMethod(int access, String name, String descriptor,
+                   byte[] code, int length, int maxStack, int maxLocals) {
+        u2(methods, access);
+        u2(methods, utf8(name));
+        u2(methods, utf8(descriptor));
+        u2(methods, 1);
+
+        u2(methods, utf8("Code"));
+        u4(methods, 12 + length);
+        u2(methods, maxStack);
+        u2(methods, maxLocals);
+        u4(methods, length);
+        methods.write(code, 0, length);
+        u2(methods, 0);
+        u2(methods, 0);
+        methodCount++;
+    }
+
+    /**
+     * Method to write out the class file
+     *
+     * @param name String internal name of the class
+     * @param superName String
+     * @param interfaceName String
+     *
+     * @return byte[]
+     */
+    byte[] toByteArray(String name, String superName, String interfaceName) {
+        int thisIndex = classRef(name);
+        int superIndex = classRef(superName);
+        int interfaceIndex = classRef(interfaceName);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        u4(out, 0xCAFEBABE);
+        u2(out, 0);
+        u2(out, VERSION);
+        u2(out, poolCount);
+        out.write(pool.toByteArray(), 0, pool.size());
+        u2(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        u2(out, thisIndex);
+        u2(out, superIndex);
+        u2(out, 1);
+        u2(out, interfaceIndex);
+        u2(out, fieldCount);
+        out.write(fields.toByteArray(), 0, fields.size());
+        u2(out, methodCount);
+        out.write(methods.toByteArray(), 0, methods.size());
+        u2(out, 0);
+        return out.toByteArray();
+    }
+
+    private static void u2(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void u4(ByteArrayOutputStream out, int value) {
+        u2(out, value >>> 16);
+        u2(out, value);
+    }
+}
@@ -0,0 +1,1008 @@
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the JIT tier of the tree walk interpreter. Once a function or method has
+ * been called or has looped often enough, its body is compiled to JVM bytecode and
+ * loaded as a hidden class, so HotSpot can inline and optimize it like any other Java
+ * code. A call still looping in the interpreter continues in the compiled code at its
+ * next loop iteration. Locals become JVM locals, locals only ever holding numbers
+ * become unboxed doubles, and every other operation calls into JitRuntime. Functions
+ * declaring closures or classes, methods using super, and functions with locals a
+ * closure captures are not compiled and keep running in the interpreter.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int INVOCATION_THRESHOLD = 1000;
+    static final int BACK_EDGE_THRESHOLD = 10000;
+
+    // switched off to debug against the interpreter alone
+    static boolean enabled = true;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "JitRuntime";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;LExpr$Binary;)Ljava/lang/Object;";
+    private static final String TEST = "(Ljava/lang/Object;Ljava/lang/Object;LExpr$Binary;)Z";
+    private static final String CALL = "(Ljava/lang/Object;[Ljava/lang/Object;LInterpreter;LExpr$Call;)Ljava/lang/Object;";
+    private static final String RUN = "(LInterpreter;[LCell;LFeinInstance;Ljava/lang/Object;Ljava/lang/Object;"
+            + "Ljava/lang/Object;Ljava/lang/Object;Ljava/util/List;)Ljava/lang/Object;";
+    private static final String RESUME = "(LInterpreter;[LCell;LStmt;)Ljava/lang/Object;";
+
+    // locals of run: this, interpreter, upvalues, the receiver, the four direct
+    // arguments and the argument list, then the frame slots. Resume has the loop to
+    // continue in place of the receiver and no arguments.
+    private static final int INTERPRETER = 1;
+    private static final int UPVALUES = 2;
+    private static final int RECEIVER = 3;
+    private static final int LOOP = 3;
+    private static final int DIRECT_ARGUMENTS = 4;
+    private static final int ARGUMENTS = 8;
+    private static final int FRAME = 9;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int DCONST_0 = 0x0e;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int POP2 = 0x58;
+    private static final int DUP = 0x59;
+    private static final int DUP_X1 = 0x5a;
+    private static final int DUP2 = 0x5c;
+    private static final int SWAP = 0x5f;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ACMPEQ = 0xa5;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+
+    // environment whose cells global accesses are bound to
+    private final Environment globals;
+    private final JitClassFile classFile = new JitClassFile();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    // JVM local of each frame slot, and which slots only ever hold numbers
+    private int[] locals;
+    private boolean[] numbers;
+    // assignments to frame slots and loops of the body, and where each loop starts
+    private final List<Stmt.Var> declarations = new ArrayList<>();
+    private final List<Expr.Assign> assignments = new ArrayList<>();
+    private final List<Stmt> loops = new ArrayList<>();
+    private final Map<Stmt, Integer> loopStarts = new IdentityHashMap<>();
+
+    /**
+     * Class for the signal that a body uses something the compiler does not handle
+     */
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JitCompiler(Environment globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Method to compile the body of a function
+     *
+     * @param declaration Stmt.Function
+     * @param globals Environment the global variables of the body are bound in
+     *
+     * @return CompiledFunction, null when the function can't be compiled
+     */
+    static CompiledFunction compile(Stmt.Function declaration, Environment globals) {
+        if(!enabled || declaration.escapes) return null;
+
+        try {
+            JitCompiler compiler = new JitCompiler(globals);
+            byte[] bytes = compiler.compileFunction(declaration);
+            Class<?> compiled = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (CompiledFunction) compiled.getConstructor(Object[].class)
+                    .newInstance((Object) compiler.constants.toArray());
+        } catch (Unsupported unsupported) {
+            return null;
+        } catch (ReflectiveOperationException error) {
+            // The generated class always has this constructor, so failing to call it
+            // is a bug of the compiler just like a VerifyError, which is left to propagate.
+            throw new IllegalStateException("Compiled " + declaration.name.lexeme + " can't be instantiated.", error);
+        }
+    }
+
+    /**
+     * Method to generate the class holding the compiled body
+     *
+     * @param declaration Stmt.Function
+     *
+     * @return byte[]
+     */
+    private byte[] compileFunction(Stmt.Function declaration) {
+        for(Stmt statement : declaration.body) {
+            scan(statement);
+        }
+        int first = declaration.method ? 1 : 0;
+        inferNumbers(declaration.frameSize, first + declaration.params.size());
+
+        // Frame slots keep their place after the fixed locals, the doubles of the
+        // number slots take two locals each after them.
+        locals = new int[declaration.frameSize];
+        int maxLocals = FRAME + declaration.frameSize;
+        for(int slot = 0; slot < declaration.frameSize; slot++) {
+            if(numbers[slot]) {
+                locals[slot] = maxLocals;
+                maxLocals += 2;
+            } else {
+                locals[slot] = FRAME + slot;
+            }
+        }
+        if(maxLocals > 255) throw new Unsupported();
+
+        if(declaration.method) {
+            emit(ALOAD, 1);
+            u1(RECEIVER);
+            store(0);
+        }
+        boolean direct = declaration.params.size() <= FeinFunction.MAX_DIRECT;
+        for(int i = 0; i < declaration.params.size(); i++) {
+            if(direct) {
+                emit(ALOAD, 1);
+                u1(DIRECT_ARGUMENTS + i);
+            } else {
+                emit(ALOAD, 1);
+                u1(ARGUMENTS);
+                sipush(i);
+                emitInvoke(INVOKEINTERFACE, "java/util/List", "get", "(I)Ljava/lang/Object;", -1);
+            }
+            store(first + i);
+        }
+        // Every other slot starts out nil, or zero for numbers, which also keeps the
+        // verifier from seeing a slot that is only assigned on some paths.
+        for(int slot = first + declaration.params.size(); slot < declaration.frameSize; slot++) {
+            if(numbers[slot]) {
+                emit(DCONST_0, 2);
+                storeNumber(slot);
+            } else {
+                emit(ACONST_NULL, 1);
+                store(slot);
+            }
+        }
+        compileBody(declaration);
+        classFile.addMethod(JitClassFile.ACC_PUBLIC, "run", RUN, code, length, maxStack, maxLocals);
+
+        // Resuming takes every slot from the frame in the interpreter, then jumps to
+        // the start of the loop being continued.
+        code = new byte[code.length];
+        length = 0;
+        stackDepth = 0;
+        maxStack = 0;
+        for(int slot = 0; slot < declaration.frameSize; slot++) {
+            emit(ALOAD_1, 1);
+            sipush(slot);
+            emitInvoke(INVOKEVIRTUAL, "Interpreter", "getLocal", "(I)Ljava/lang/Object;", -1);
+            if(numbers[slot]) {
+                emitInvoke(INVOKESTATIC, RUNTIME, "number", "(Ljava/lang/Object;)D", 1);
+                storeNumber(slot);
+            } else {
+                store(slot);
+            }
+        }
+        int[] entries = new int[loops.size()];
+        for(int i = 0; i < loops.size(); i++) {
+            emit(ALOAD, 1);
+            u1(LOOP);
+            loadConstant(loops.get(i), null);
+            entries[i] = emitJump(IF_ACMPEQ, -2);
+        }
+        compileBody(declaration);
+        for(int i = 0; i < loops.size(); i++) {
+            patchJump(entries[i], loopStarts.get(loops.get(i)));
+        }
+        classFile.addMethod(JitClassFile.ACC_PUBLIC, "resume", RESUME, code, length, maxStack, maxLocals);
+
+        classFile.addField(JitClassFile.ACC_PUBLIC, "constants", "[Ljava/lang/Object;");
+        byte[] constructor = {
+                (byte) ALOAD_0,
+                (byte) INVOKESPECIAL, 0, 0,
+                (byte) ALOAD_0,
+                (byte) ALOAD_1,
+                (byte) PUTFIELD, 0, 0,
+                (byte) RETURN
+        };
+        int superConstructor = classFile.methodRef(OBJECT, "<init>", "()V");
+        int constantsField = classFile.fieldRef("JitFunction", "constants", "[Ljava/lang/Object;");
+        constructor[2] = (byte) (superConstructor >>> 8);
+        constructor[3] = (byte) superConstructor;
+        constructor[7] = (byte) (constantsField >>> 8);
+        constructor[8] = (byte) constantsField;
+        classFile.addMethod(JitClassFile.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V",
+                constructor, constructor.length, 2, 2);
+
+        return classFile.toByteArray("JitFunction", OBJECT, "CompiledFunction");
+    }
+
+    private void compileBody(Stmt.Function declaration) {
+        for(Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        emit(ACONST_NULL, 1);
+        emit(ARETURN, -1);
+
+        if(length > Short.MAX_VALUE) throw new Unsupported();
+    }
+
+    /**
+     * Method to collect the declarations and assignments of frame slots and the
+     * loops of a body
+     *
+     * @param stmt Stmt
+     */
+    private void scan(Stmt stmt) {
+        if(stmt instanceof Stmt.Block) {
+            for(Stmt statement : ((Stmt.Block) stmt).statements) {
+                scan(statement);
+            }
+        } else if(stmt instanceof Stmt.Expression) {
+            scan(((Stmt.Expression) stmt).expression);
+        } else if(stmt instanceof Stmt.For) {
+            Stmt.For loop = (Stmt.For) stmt;
+            loops.add(loop);
+            if(loop.initializer != null) scan(loop.initializer);
+            if(loop.condition != null) scan(loop.condition);
+            if(loop.increment != null) scan(loop.increment);
+            scan(loop.body);
+        } else if(stmt instanceof Stmt.If) {
+            Stmt.If branch = (Stmt.If) stmt;
+            scan(branch.condition);
+            scan(branch.thenBranch);
+            if(branch.elseBranch != null) scan(branch.elseBranch);
+        } else if(stmt instanceof Stmt.Print) {
+            scan(((Stmt.Print) stmt).expression);
+        } else if(stmt instanceof Stmt.Return) {
+            if(((Stmt.Return) stmt).value != null) scan(((Stmt.Return) stmt).value);
+        } else if(stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var) stmt;
+            if(var.stackSlot == -1) throw new Unsupported();
+            declarations.add(var);
+            if(var.initializer != null) scan(var.initializer);
+        } else if(stmt instanceof Stmt.While) {
+            Stmt.While loop = (Stmt.While) stmt;
+            loops.add(loop);
+            scan(loop.condition);
+            scan(loop.body);
+        } else {
+            // functions and classes
+            throw new Unsupported();
+        }
+    }
+
+    private void scan(Expr expr) {
+        if(expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            if(assign.stackSlot != -1) assignments.add(assign);
+            scan(assign.value);
+        } else if(expr instanceof Expr.Binary) {
+            scan(((Expr.Binary) expr).left);
+            scan(((Expr.Binary) expr).right);
+        } else if(expr instanceof Expr.Call) {
+            scan(((Expr.Call) expr).callee);
+            for(Expr argument : ((Expr.Call) expr).arguments) {
+                scan(argument);
+            }
+        } else if(expr instanceof Expr.Get) {
+            scan(((Expr.Get) expr).object);
+        } else if(expr instanceof Expr.Grouping) {
+            scan(((Expr.Grouping) expr).expression);
+        } else if(expr instanceof Expr.Logical) {
+            scan(((Expr.Logical) expr).left);
+            scan(((Expr.Logical) expr).right);
+        } else if(expr instanceof Expr.Set) {
+            scan(((Expr.Set) expr).object);
+            scan(((Expr.Set) expr).value);
+        } else if(expr instanceof Expr.Unary) {
+            scan(((Expr.Unary) expr).right);
+        }
+    }
+
+    /**
+     * Method to find the frame slots only ever holding numbers. Every slot but the
+     * receiver and parameters starts out as one, and loses it when something that
+     * may not be a number is stored into it, until no more slots change.
+     *
+     * @param frameSize int
+     * @param parameters int slots taken by the receiver and parameters
+     */
+    private void inferNumbers(int frameSize, int parameters) {
+        numbers = new boolean[frameSize];
+        Arrays.fill(numbers, parameters, frameSize, true);
+
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(Stmt.Var var : declarations) {
+                if(numbers[var.stackSlot] && (var.initializer == null || !isNumber(var.initializer))) {
+                    numbers[var.stackSlot] = false;
+                    changed = true;
+                }
+            }
+            for(Expr.Assign assign : assignments) {
+                if(numbers[assign.stackSlot] && !isNumber(assign.value)) {
+                    numbers[assign.stackSlot] = false;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to check an expression always produces a number, when it produces a value
+     *
+     * @param expr Expr
+     *
+     * @return boolean
+     */
+    private boolean isNumber(Expr expr) {
+        if(expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if(expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping) expr).expression);
+        if(expr instanceof Expr.Variable) return isNumberSlot(((Expr.Variable) expr).stackSlot);
+        if(expr instanceof Expr.Assign) return isNumberSlot(((Expr.Assign) expr).stackSlot);
+        if(expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        if(expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return isNumber(binary.left) && isNumber(binary.right);
+            }
+        }
+        return false;
+    }
+
+    private boolean isNumberSlot(int stackSlot) {
+        return stackSlot != -1 && numbers[stackSlot];
+    }
+
+    /**
+     * Method to check an expression is computed on doubles, rather than producing
+     * a number by calling into JitRuntime
+     *
+     * @param expr Expr
+     *
+     * @return boolean
+     */
+    private boolean isUnboxed(Expr expr) {
+        if(expr instanceof Expr.Variable) return isNumberSlot(((Expr.Variable) expr).stackSlot);
+        if(expr instanceof Expr.Assign) return isNumberSlot(((Expr.Assign) expr).stackSlot);
+        if(expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.MINUS && isNumber(unary.right);
+        }
+        if(expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return isNumber(binary) && isNumber(binary.left) && isNumber(binary.right);
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if(isNumber(stmt.expression)) {
+            compileNumber(stmt.expression);
+            emit(POP2, -2);
+            return null;
+        }
+
+        compile(stmt.expression);
+        emit(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if(stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = length;
+        loopStarts.put(stmt, loopStart);
+        int exitJump = -1;
+        if(stmt.condition != null) {
+            compileCondition(stmt.condition);
+            exitJump = emitJump(IFEQ, -1);
+        }
+        compile(stmt.body);
+        if(stmt.increment != null) {
+            compile(stmt.increment);
+            emit(POP, -1);
+        }
+        emitLoop(loopStart);
+
+        if(exitJump != -1) patchJump(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compileCondition(stmt.condition);
+        int elseJump = emitJump(IFEQ, -1);
+        compile(stmt.thenBranch);
+
+        if(stmt.elseBranch == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(GOTO, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitInvoke(INVOKESTATIC, "Interpreter", "stringify", "(Ljava/lang/Object;)Ljava/lang/String;", 0);
+        emit(GETSTATIC, 1);
+        u2(classFile.fieldRef("java/lang/System", "out", "Ljava/io/PrintStream;"));
+        emit(SWAP, 0);
+        emitInvoke(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", -2);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value == null) {
+            emit(ACONST_NULL, 1);
+        } else if(stmt.tailCall) {
+            compileCall((Expr.Call) stmt.value, "tailCall");
+        } else {
+            compile(stmt.value);
+        }
+        emit(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.stackSlot == -1) throw new Unsupported();
+
+        if(numbers[stmt.stackSlot]) {
+            compileNumber(stmt.initializer);
+            storeNumber(stmt.stackSlot);
+            return null;
+        }
+        if(stmt.initializer == null) {
+            emit(ACONST_NULL, 1);
+        } else {
+            compile(stmt.initializer);
+        }
+        store(stmt.stackSlot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = length;
+        loopStarts.put(stmt, loopStart);
+        compileCondition(stmt.condition);
+        int exitJump = emitJump(IFEQ, -1);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        emit(DUP, 1);
+        if(expr.stackSlot != -1) {
+            store(expr.stackSlot);
+        } else if(expr.upvalue != -1) {
+            loadUpvalue(expr.upvalue);
+            emit(SWAP, 0);
+            emit(PUTFIELD, -2);
+            u2(classFile.fieldRef("Cell", "value", "Ljava/lang/Object;"));
+        } else if(expr.cellSlot != -1) {
+            throw new Unsupported();
+        } else {
+            loadConstant(globals.cell(expr.name.lexeme), "GlobalCell");
+            loadConstant(expr.name, "Token");
+            emitInvoke(INVOKESTATIC, RUNTIME, "assignGlobal", "(Ljava/lang/Object;LGlobalCell;LToken;)V", -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        String test = numberTest(expr);
+        if(test != null) {
+            compileNumber(expr.left);
+            compileNumber(expr.right);
+            emitInvoke(INVOKESTATIC, RUNTIME, test, "(DD)Z", -3);
+            emitInvoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", 0);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                emitInvoke(INVOKESTATIC, RUNTIME, "notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+                return null;
+            case EQUAL_EQUAL:
+                emitInvoke(INVOKESTATIC, RUNTIME, "equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+                return null;
+        }
+
+        loadConstant(expr, "Expr$Binary");
+        emitInvoke(INVOKESTATIC, RUNTIME, operation(expr.operator.type), BINARY, -2);
+        return null;
+    }
+
+    /**
+     * Method to name the runtime operation for an arithmetic or comparison operator
+     *
+     * @param operator TokenType
+     *
+     * @return String
+     */
+    private static String operation(TokenType operator) {
+        switch (operator) {
+            case GREATER: return "greater";
+            case GREATER_EQUAL: return "greaterEqual";
+            case LESS: return "less";
+            case LESS_EQUAL: return "lessEqual";
+            case MINUS: return "subtract";
+            case PLUS: return "add";
+            case SLASH: return "divide";
+            case STAR: return "multiply";
+        }
+
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, "call");
+        return null;
+    }
+
+    /**
+     * Method to compile a call, with up to four arguments passed to the runtime
+     * directly and any more as an array
+     *
+     * @param expr Expr.Call
+     * @param operation String
+     */
+    private void compileCall(Expr.Call expr, String operation) {
+        int count = expr.arguments.size();
+        if(operation.equals("call") && count <= FeinFunction.MAX_DIRECT && expr.callee instanceof Expr.Get) {
+            // A method is looked up on the object and called without binding it.
+            compile(((Expr.Get) expr.callee).object);
+            emit(DUP, 1);
+            loadConstant(expr, "Expr$Call");
+            emitInvoke(INVOKESTATIC, RUNTIME, "method", "(Ljava/lang/Object;LExpr$Call;)Ljava/lang/Object;", -1);
+            StringBuilder descriptor = new StringBuilder("(Ljava/lang/Object;Ljava/lang/Object;");
+            for(Expr argument : expr.arguments) {
+                compile(argument);
+                descriptor.append("Ljava/lang/Object;");
+            }
+            descriptor.append("LInterpreter;LExpr$Call;)Ljava/lang/Object;");
+            emit(ALOAD_1, 1);
+            loadConstant(expr, "Expr$Call");
+            emitInvoke(INVOKESTATIC, RUNTIME, "invoke" + count, descriptor.toString(), -(count + 3));
+            return;
+        }
+
+        compile(expr.callee);
+        if(operation.equals("call") && count <= FeinFunction.MAX_DIRECT) {
+            StringBuilder descriptor = new StringBuilder("(Ljava/lang/Object;");
+            for(Expr argument : expr.arguments) {
+                compile(argument);
+                descriptor.append("Ljava/lang/Object;");
+            }
+            descriptor.append("LInterpreter;LExpr$Call;)Ljava/lang/Object;");
+            emit(ALOAD_1, 1);
+            loadConstant(expr, "Expr$Call");
+            emitInvoke(INVOKESTATIC, RUNTIME, operation + count, descriptor.toString(), -(count + 2));
+            return;
+        }
+
+        sipush(expr.arguments.size());
+        emit(ANEWARRAY, 0);
+        u2(classFile.classRef(OBJECT));
+        for(int i = 0; i < expr.arguments.size(); i++) {
+            emit(DUP, 1);
+            sipush(i);
+            compile(expr.arguments.get(i));
+            emit(AASTORE, -3);
+        }
+        emit(ALOAD_1, 1);
+        loadConstant(expr, "Expr$Call");
+        emitInvoke(INVOKESTATIC, RUNTIME, operation, CALL, -3);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        loadConstant(expr, "Expr$Get");
+        emitInvoke(INVOKESTATIC, RUNTIME, "get", "(Ljava/lang/Object;LExpr$Get;)Ljava/lang/Object;", -1);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            emit(ACONST_NULL, 1);
+        } else if(expr.value instanceof Boolean) {
+            emit(GETSTATIC, 1);
+            u2(classFile.fieldRef("java/lang/Boolean", (boolean) expr.value ? "TRUE" : "FALSE",
+                    "Ljava/lang/Boolean;"));
+        } else {
+            loadConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        emit(DUP, 1);
+        emitInvoke(INVOKESTATIC, "Interpreter", "isTruthy", "(Ljava/lang/Object;)Z", 0);
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, -1);
+        emit(POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        loadConstant(expr, "Expr$Set");
+        emitInvoke(INVOKESTATIC, RUNTIME, "fieldOwner", "(Ljava/lang/Object;LExpr$Set;)Ljava/lang/Object;", -1);
+        compile(expr.value);
+        emit(DUP_X1, 1);
+        loadConstant(expr, "Expr$Set");
+        emitInvoke(INVOKESTATIC, RUNTIME, "set", "(Ljava/lang/Object;Ljava/lang/Object;LExpr$Set;)V", -3);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if(expr.stackSlot != -1) {
+            emit(ALOAD, 1);
+            u1(locals[expr.stackSlot]);
+        } else if(expr.upvalue != -1) {
+            loadUpvalue(expr.upvalue);
+            emit(GETFIELD, 0);
+            u2(classFile.fieldRef("Cell", "value", "Ljava/lang/Object;"));
+        } else {
+            throw new Unsupported();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if(expr.operator.type == TokenType.BANG) {
+            emitInvoke(INVOKESTATIC, RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;", 0);
+            return null;
+        }
+
+        loadConstant(expr, "Expr$Unary");
+        emitInvoke(INVOKESTATIC, RUNTIME, "negate", "(Ljava/lang/Object;LExpr$Unary;)Ljava/lang/Object;", -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if(expr.stackSlot != -1) {
+            emit(ALOAD, 1);
+            u1(locals[expr.stackSlot]);
+        } else if(expr.upvalue != -1) {
+            loadUpvalue(expr.upvalue);
+            emit(GETFIELD, 0);
+            u2(classFile.fieldRef("Cell", "value", "Ljava/lang/Object;"));
+        } else if(expr.cellSlot != -1) {
+            throw new Unsupported();
+        } else {
+            loadConstant(globals.cell(expr.name.lexeme), "GlobalCell");
+            loadConstant(expr.name, "Token");
+            emitInvoke(INVOKEVIRTUAL, "GlobalCell", "get", "(LToken;)Ljava/lang/Object;", -1);
+        }
+        return null;
+    }
+
+    /**
+     * Method to compile a condition, leaving an int that is zero when it is falsey.
+     * Number comparisons produce the int directly instead of a Boolean.
+     *
+     * @param condition Expr
+     */
+    private void compileCondition(Expr condition) {
+        if(condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            String test = numberTest(binary);
+            if(test != null) {
+                compileNumber(binary.left);
+                compileNumber(binary.right);
+                emitInvoke(INVOKESTATIC, RUNTIME, test, "(DD)Z", -3);
+                return;
+            }
+
+            test = null;
+            switch (binary.operator.type) {
+                case GREATER: test = "greaterTest"; break;
+                case GREATER_EQUAL: test = "greaterEqualTest"; break;
+                case LESS: test = "lessTest"; break;
+                case LESS_EQUAL: test = "lessEqualTest"; break;
+            }
+
+            if(test != null) {
+                compile(binary.left);
+                compile(binary.right);
+                loadConstant(binary, "Expr$Binary");
+                emitInvoke(INVOKESTATIC, RUNTIME, test, TEST, -2);
+                return;
+            }
+        }
+
+        compile(condition);
+        emitInvoke(INVOKESTATIC, "Interpreter", "isTruthy", "(Ljava/lang/Object;)Z", 0);
+    }
+
+    /**
+     * Method to name the runtime test for a comparison of two numbers
+     *
+     * @param expr Expr.Binary
+     *
+     * @return String, null unless the operator compares and both operands are numbers
+     */
+    private String numberTest(Expr.Binary expr) {
+        if(!isNumber(expr.left) || !isNumber(expr.right)) return null;
+
+        switch (expr.operator.type) {
+            case GREATER: return "greaterTest";
+            case GREATER_EQUAL: return "greaterEqualTest";
+            case LESS: return "lessTest";
+            case LESS_EQUAL: return "lessEqualTest";
+        }
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    /**
+     * Method to compile an expression leaving its value as an object
+     *
+     * @param expr Expr
+     */
+    private void compile(Expr expr) {
+        if(isUnboxed(expr)) {
+            compileNumber(expr);
+            emitInvoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", -1);
+            return;
+        }
+        expr.accept(this);
+    }
+
+    /**
+     * Method to compile an expression that always produces a number, leaving a double
+     *
+     * @param expr Expr
+     */
+    private void compileNumber(Expr expr) {
+        if(expr instanceof Expr.Literal) {
+            emit(LDC2_W, 2);
+            u2(classFile.doubleConstant((double) ((Expr.Literal) expr).value));
+        } else if(expr instanceof Expr.Grouping) {
+            compileNumber(((Expr.Grouping) expr).expression);
+        } else if(!isUnboxed(expr)) {
+            // The operation calls into JitRuntime, which returns a Double when it returns.
+            expr.accept(this);
+            emit(CHECKCAST, 0);
+            u2(classFile.classRef("java/lang/Double"));
+            emitInvoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D", 1);
+        } else if(expr instanceof Expr.Variable) {
+            emit(DLOAD, 2);
+            u1(locals[((Expr.Variable) expr).stackSlot]);
+        } else if(expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            compileNumber(assign.value);
+            emit(DUP2, 2);
+            storeNumber(assign.stackSlot);
+        } else if(expr instanceof Expr.Unary) {
+            compileNumber(((Expr.Unary) expr).right);
+            emit(DNEG, 0);
+        } else {
+            Expr.Binary binary = (Expr.Binary) expr;
+            compileNumber(binary.left);
+            compileNumber(binary.right);
+            switch (binary.operator.type) {
+                case PLUS: emit(DADD, -2); break;
+                case MINUS: emit(DSUB, -2); break;
+                case STAR: emit(DMUL, -2); break;
+                default:
+                    // Dividing checks the divisor like the interpreter.
+                    loadConstant(binary, "Expr$Binary");
+                    emitInvoke(INVOKESTATIC, RUNTIME, "divide", "(DDLExpr$Binary;)D", -3);
+            }
+        }
+    }
+
+    private void loadUpvalue(int index) {
+        emit(ALOAD, 1);
+        u1(UPVALUES);
+        sipush(index);
+        emit(AALOAD, -1);
+    }
+
+    private void store(int slot) {
+        emit(ASTORE, -1);
+        u1(locals[slot]);
+    }
+
+    private void storeNumber(int slot) {
+        emit(DSTORE, -2);
+        u1(locals[slot]);
+    }
+
+    /**
+     * Method to load an object from the constants array the compiled class is created with
+     *
+     * @param value Object
+     * @param type String internal name of the class to cast it to, or null
+     */
+    private void loadConstant(Object value, String type) {
+        Integer index = constantIndex.get(value);
+        if(index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+
+        emit(ALOAD_0, 1);
+        emit(GETFIELD, 0);
+        u2(classFile.fieldRef("JitFunction", "constants", "[Ljava/lang/Object;"));
+        sipush(index);
+        emit(AALOAD, -1);
+        if(type != null) {
+            emit(CHECKCAST, 0);
+            u2(classFile.classRef(type));
+        }
+    }
+
+    private void sipush(int value) {
+        if(value > Short.MAX_VALUE) throw new Unsupported();
+        emit(SIPUSH, 1);
+        u2(value);
+    }
+
+    /**
+     * Method to emit a method call, for an interface the argument count follows
+     *
+     * @param opcode int
+     * @param owner String
+     * @param name String
+     * @param descriptor String
+     * @param stackEffect int
+     */
+    private void emitInvoke(int opcode, String owner, String name, String descriptor, int stackEffect) {
+        if(opcode == INVOKEINTERFACE) {
+            emit(opcode, stackEffect);
+            u2(classFile.interfaceMethodRef(owner, name, descriptor));
+            // the receiver and one slot per int or reference argument
+            u1(1 + descriptor.substring(1, descriptor.indexOf(')')).replaceAll("L[^;]*;", "L").length());
+            u1(0);
+            return;
+        }
+
+        emit(opcode, stackEffect);
+        u2(classFile.methodRef(owner, name, descriptor));
+    }
+
+    private int emitJump(int opcode, int stackEffect) {
+        emit(opcode, stackEffect);
+        u2(0);
+        return length - 3;
+    }
+
+    private void patchJump(int at) {
+        patchJump(at, length);
+    }
+
+    private void patchJump(int at, int target) {
+        int offset = target - at;
+        code[at + 1] = (byte) (offset >>> 8);
+        code[at + 2] = (byte) offset;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(GOTO, 0);
+        u2(loopStart - (length - 1));
+    }
+
+    private void emit(int opcode, int stackEffect) {
+        u1(opcode);
+        stackDepth += stackEffect;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void u1(int value) {
+        if(length == code.length) code = Arrays.copyOf(code, code.length * 2);
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >>> 8);
+        u1(value);
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Arrays;
+
+/**
+ * Class for the operations compiled code calls into, with the operands in the
+ * order the bytecode pushes them. Each one forwards to the interpreter's own code,
+ * so compiled and interpreted functions behave and fail the same way.
+ */
+class JitRuntime {
+
+    static Object add(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.add(expr, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.subtract(expr, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.multiply(expr, left, right);
+    }
+
+    static Object divide(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.divide(expr, left, right);
+    }
+
+    static Object greater(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.greater(expr, left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.greaterEqual(expr, left, right);
+    }
+
+    static Object less(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.less(expr, left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.lessEqual(expr, left, right);
+    }
+
+    static boolean greaterTest(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.greater(expr, left, right);
+    }
+
+    static boolean greaterEqualTest(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.greaterEqual(expr, left, right);
+    }
+
+    static boolean lessTest(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.less(expr, left, right);
+    }
+
+    static boolean lessEqualTest(Object left, Object right, Expr.Binary expr) {
+        return BinaryNode.lessEqual(expr, left, right);
+    }
+
+    // Operators on the numbers of locals that only ever hold numbers, see
+    // JitCompiler.inferNumbers.
+
+    static double divide(double left, double right, Expr.Binary expr) {
+        if(!BinaryNode.isZeroDivisor(right)) return left / right;
+        return (double) BinaryNode.divide(expr, left, right);
+    }
+
+    static boolean greaterTest(double left, double right) {
+        return left > right;
+    }
+
+    static boolean greaterEqualTest(double left, double right) {
+        return left >= right;
+    }
+
+    static boolean lessTest(double left, double right) {
+        return left < right;
+    }
+
+    static boolean lessEqualTest(double left, double right) {
+        return left <= right;
+    }
+
+    /**
+     * Method to read the frame slot of a local holding only numbers when a loop is
+     * resumed. A slot whose local is not declared yet holds anything else.
+     *
+     * @param value Object
+     *
+     * @return double
+     */
+    static double number(Object value) {
+        return value instanceof Double ? (double) value : 0;
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.isTruthy(right);
+    }
+
+    static Object negate(Object right, Expr.Unary expr) {
+        return Interpreter.negate(expr, right);
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, Arrays.asList(arguments), expr, false);
+    }
+
+    static Object call0(Object callee, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, 0, null, null, null, null, expr);
+    }
+
+    static Object call1(Object callee, Object a0, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, 1, a0, null, null, null, expr);
+    }
+
+    static Object call2(Object callee, Object a0, Object a1, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, 2, a0, a1, null, null, expr);
+    }
+
+    static Object call3(Object callee, Object a0, Object a1, Object a2, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, 3, a0, a1, a2, null, expr);
+    }
+
+    static Object call4(Object callee, Object a0, Object a1, Object a2, Object a3,
+                        Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, 4, a0, a1, a2, a3, expr);
+    }
+
+    /**
+     * Method to find what a call of a property calls, before its arguments are
+     * evaluated like on the interpreter, see Interpreter.callMethod
+     *
+     * @param object Object
+     * @param expr Expr.Call with an Expr.Get callee
+     *
+     * @return Object the method of the class of the object, otherwise the property
+     */
+    static Object method(Object object, Expr.Call expr) {
+        Expr.Get get = (Expr.Get) expr.callee;
+        if(object instanceof FeinInstance) {
+            FeinFunction method = ((FeinInstance) object).findMethod(get.name, expr.cache);
+            if(method != null) return method;
+        }
+        return Interpreter.getProperty(get, object);
+    }
+
+    /**
+     * Method to pick the receiver of a call of a property. Methods of a class are
+     * only ever bound when they are used as values, so an unbound method comes from
+     * the class of the object and runs on it, anything else keeps its own receiver.
+     *
+     * @param object Object
+     * @param callee Object
+     *
+     * @return FeinInstance, null unless the callee is a method of the object
+     */
+    private static FeinInstance receiver(Object object, Object callee) {
+        if(callee instanceof FeinFunction) {
+            FeinFunction function = (FeinFunction) callee;
+            if(function.receiver == null && function.declaration.method) return (FeinInstance) object;
+        }
+        return null;
+    }
+
+    static Object invoke0(Object object, Object callee, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, receiver(object, callee), 0, null, null, null, null, expr);
+    }
+
+    static Object invoke1(Object object, Object callee, Object a0, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, receiver(object, callee), 1, a0, null, null, null, expr);
+    }
+
+    static Object invoke2(Object object, Object callee, Object a0, Object a1,
+                          Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, receiver(object, callee), 2, a0, a1, null, null, expr);
+    }
+
+    static Object invoke3(Object object, Object callee, Object a0, Object a1, Object a2,
+                          Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, receiver(object, callee), 3, a0, a1, a2, null, expr);
+    }
+
+    static Object invoke4(Object object, Object callee, Object a0, Object a1, Object a2, Object a3,
+                          Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, receiver(object, callee), 4, a0, a1, a2, a3, expr);
+    }
+
+    static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Expr.Call expr) {
+        return interpreter.dispatch(callee, null, Arrays.asList(arguments), expr, true);
+    }
+
+    static Object get(Object object, Expr.Get expr) {
+        return Interpreter.getProperty(expr, object);
+    }
+
+    static Object fieldOwner(Object object, Expr.Set expr) {
+        return Interpreter.fieldOwner(expr, object);
+    }
+
+    static void set(Object object, Object value, Expr.Set expr) {
+        ((FeinInstance) object).set(expr.name, value, expr.cache);
+    }
+
+    static void assignGlobal(Object value, GlobalCell cell, Token name) {
+        cell.assign(name, value);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Class for the exception raised when an expression evaluated on the unboxed
+ * number path turns out not to produce a number, carrying the value it produced
+ */
+public class NumberMiss extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    NumberMiss(Object value){
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the optimizer, which rewrites the resolved syntax tree before it runs.
+ * It folds operators whose operands are literals, drops branches and loops whose
+ * condition is a literal that never selects them, and drops empty blocks and
+ * statements with no effect. A block declaring nothing is merged into the
+ * statements around it. A local the resolver found is never assigned after its
+ * declaration, nor captured, is replaced by its initializer where that folds to a
+ * literal. Declarations are never removed, and rebuilt nodes carry over what the
+ * resolver stored on the originals, so variable slots stay valid.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // literal initializers of the locals that keep them, by their declaration
+    private final Map<Stmt.Var, Expr.Literal> constants = new HashMap<>();
+
+    /**
+     * Method to optimize a list of statements
+     *
+     * @param statements List<Stmt>
+     *
+     * @return List<Stmt>
+     */
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>();
+        for(Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if(optimized instanceof Stmt.Block && !((Stmt.Block) optimized).scoped) {
+                result.addAll(((Stmt.Block) optimized).statements);
+            } else if(optimized != null) {
+                result.add(optimized);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Method to optimize a statement
+     *
+     * @param stmt Stmt
+     *
+     * @return Stmt, null when the statement does nothing
+     */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * Method to optimize a statement that has to stay in place, such as a loop body
+     *
+     * @param stmt Stmt
+     *
+     * @return Stmt
+     */
+    private Stmt optimizeRequired(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        if(optimized == null) return new Stmt.Block(new ArrayList<>());
+        return optimized;
+    }
+
+    /**
+     * Method to optimize an expression
+     *
+     * @param expr Expr
+     *
+     * @return Expr
+     */
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if(statements.isEmpty()) return null;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.scoped = stmt.scoped;
+        block.releaseSlot = stmt.releaseSlot;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        for(Stmt.Function method : stmt.methods) {
+            methods.add(optimizeFunction(method));
+        }
+
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        klass.stackSlot = stmt.stackSlot;
+        klass.cellSlot = stmt.cellSlot;
+        klass.superSlot = stmt.superSlot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(isLiteral(expression)) return null;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Expr condition = stmt.condition == null ? null : optimize(stmt.condition);
+        if(stmt.initializer == null && condition != null && isLiteral(condition) &&
+                !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            return null;
+        }
+
+        Stmt.For loop = new Stmt.For(stmt.initializer == null ? null : optimize(stmt.initializer),
+                condition, stmt.increment == null ? null : optimize(stmt.increment),
+                optimizeRequired(stmt.body));
+        loop.releaseSlot = stmt.releaseSlot;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return optimizeFunction(stmt);
+    }
+
+    /**
+     * Method to optimize the body of a function or method
+     *
+     * @param stmt Stmt.Function
+     *
+     * @return Stmt.Function
+     */
+    private Stmt.Function optimizeFunction(Stmt.Function stmt) {
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+        function.frameSize = stmt.frameSize;
+        function.stackSlot = stmt.stackSlot;
+        function.cellSlot = stmt.cellSlot;
+        function.escapes = stmt.escapes;
+        function.capturedParameters = stmt.capturedParameters;
+        function.upvalueIndexes = stmt.upvalueIndexes;
+        function.upvalueLocals = stmt.upvalueLocals;
+        function.method = stmt.method;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(isLiteral(condition)) {
+            if(Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, optimizeRequired(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Stmt.Return result = new Stmt.Return(stmt.keyword, stmt.value == null ? null : optimize(stmt.value));
+        result.tailCall = stmt.tailCall;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Stmt.Var var = new Stmt.Var(stmt.name, stmt.initializer == null ? null : optimize(stmt.initializer));
+        // Uses come after the declaration, so they find the literal recorded here.
+        if(var.initializer != null && isLiteral(var.initializer)) {
+            constants.put(stmt, (Expr.Literal) var.initializer);
+        }
+        var.stackSlot = stmt.stackSlot;
+        var.cellSlot = stmt.cellSlot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(isLiteral(condition) && !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            return null;
+        }
+
+        return new Stmt.While(condition, optimizeRequired(stmt.body));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign assign = new Expr.Assign(expr.name, optimize(expr.value));
+        assign.stackSlot = expr.stackSlot;
+        assign.cellSlot = expr.cellSlot;
+        assign.upvalue = expr.upvalue;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr.Binary binary = new Expr.Binary(optimize(expr.left), expr.operator, optimize(expr.right));
+        if(!isLiteral(binary.left) || !isLiteral(binary.right)) return binary;
+
+        // Fold by running the operator the way the interpreter would, an operation
+        // that fails is left for the runtime to report.
+        // Literals stay plain strings for the VM, so a folded rope is flattened.
+        try {
+            Object value = BinaryNode.GENERIC.execute(binary,
+                    ((Expr.Literal) binary.left).value, ((Expr.Literal) binary.right).value);
+            if(value instanceof Rope) value = value.toString();
+            return new Expr.Literal(value);
+        } catch (RuntimeError error) {
+            return binary;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = new ArrayList<>();
+        for(Expr argument : expr.arguments) {
+            arguments.add(optimize(argument));
+        }
+
+        return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if(isLiteral(expression)) return expression;
+
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(isLiteral(left)) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            if(expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if(isLiteral(right)) {
+            Object value = ((Expr.Literal) right).value;
+            if(expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+            if(value instanceof Double) return new Expr.Literal(-(double)value);
+        }
+
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        Expr.Literal constant = expr.constant == null ? null : constants.get(expr.constant);
+        return constant == null ? expr : constant;
+    }
+}
@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -7,13 +6,47 @@ import java.util.List;
  */
 public class Parser {
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
+
+    // precedence of each operator token, from loosest to tightest binding
+    private static final int NONE = 0;
+    private static final int ASSIGNMENT = 1;
+    private static final int OR = 2;
+    private static final int AND = 3;
+    private static final int EQUALITY = 4;
+    private static final int COMPARISON = 5;
+    private static final int TERM = 6;
+    private static final int FACTOR = 7;
+    private static final int UNARY = 8;
+    private static final int CALL = 9;
+    private static final int[] precedences = new int[TokenType.values().length];
+
+    static {
+        precedences[TokenType.EQUAL.ordinal()] = ASSIGNMENT;
+        precedences[TokenType.OR.ordinal()] = OR;
+        precedences[TokenType.AND.ordinal()] = AND;
+        precedences[TokenType.BANG_EQUAL.ordinal()] = EQUALITY;
+        precedences[TokenType.EQUAL_EQUAL.ordinal()] = EQUALITY;
+        precedences[TokenType.GREATER.ordinal()] = COMPARISON;
+        precedences[TokenType.GREATER_EQUAL.ordinal()] = COMPARISON;
+        precedences[TokenType.LESS.ordinal()] = COMPARISON;
+        precedences[TokenType.LESS_EQUAL.ordinal()] = COMPARISON;
+        precedences[TokenType.MINUS.ordinal()] = TERM;
+        precedences[TokenType.PLUS.ordinal()] = TERM;
+        precedences[TokenType.SLASH.ordinal()] = FACTOR;
+        precedences[TokenType.STAR.ordinal()] = FACTOR;
+        precedences[TokenType.LEFT_PAREN.ordinal()] = CALL;
+        precedences[TokenType.DOT.ordinal()] = CALL;
+    }
+
+    private final TokenStream tokens;
     private int current = 0;
 
     /**
      * Algorithm used here is Recursive Descent Parsing
      * GCC, V8 (the JavaScript VM in Chrome), Roslyn (the C# compiler written in C#)
      * and many other heavyweight production language implementations use recursive descent
+     * Expressions are parsed by precedence climbing (a Pratt parser) over the table
+     * of operator precedences, which builds the same trees as these rules
      * Production rules for parser
      * expression     → assignment ;
      * assignment     → ( call "." )? IDENTIFIER "=" assignment
@@ -31,9 +64,9 @@ public class Parser {
      *                  | NUMBER | STRING | IDENTIFIER | "(" expression ")"
      *                  | "super" "." IDENTIFIER ;
      *
-     * @param tokens List<Tokens>
+     * @param tokens TokenStream
      */
-    Parser(List<Token> tokens){
+    Parser(TokenStream tokens){
         this.tokens = tokens;
     }
 
@@ -188,7 +221,8 @@ public class Parser {
     }
 
     /**
-     * Method to parse for statement by DESUGARING using while
+     * Method to parse for statement into a Stmt.For node, run as one loop with a
+     * single scope rather than desugared into a while
      * forStmt        → "for" "(" ( varDecl | exprStmt | ";" )
      *                  expression? ";"
      *                  expression? ")" statement ;
@@ -222,18 +256,7 @@ public class Parser {
 
         Stmt body = statement();
 
-        if(increment != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
-
-        if(condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
-
-        if(initializer != null){
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
 
@@ -244,70 +267,140 @@ public class Parser {
      * @return Expr
      */
     private Expr expression(){
-        return assignment();
+        return expression(ASSIGNMENT);
     }
 
     /**
-     * Method to parse assignment expressions
-     * assignment     → ( call "." )? IDENTIFIER "=" assignment
-     *                | logic_or ;
+     * Method to parse an expression whose operators all bind at least as tightly
+     * as the given precedence. The operand is parsed first, then each following
+     * operator looked up in the precedence table takes what was parsed so far as
+     * its left operand, so an operand costs one call instead of one per grammar
+     * rule from assignment down to primary.
+     *
+     * @param precedence int
      * @return Expr
      */
-    private Expr assignment(){
-        Expr expr = or();
-
-        if(match(TokenType.EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
+    private Expr expression(int precedence){
+        Expr expr = prefix();
 
+        while(true) {
+            TokenType type = tokens.type(current);
+            int binding = precedences[type.ordinal()];
+            if(binding == NONE || binding < precedence) return expr;
 
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
+            advance();
+            expr = infix(expr, type, binding);
         }
-
-        return expr;
     }
 
     /**
-     * Method to parse 'or' expression
-     * logic_or       → logic_and ( "or" logic_and )* ;
+     * Method to parse the operand an expression starts with
+     * unary          → ( "!" | "-" ) unary | call ;
+     * primary        → "true" | "false" | "nil" | "this"
+     *                  | NUMBER | STRING | IDENTIFIER | "(" expression ")"
+     *                  | "super" "." IDENTIFIER ;
      *
      * @return Expr
      */
-    private Expr or(){
-        Expr expr = and();
-
-        while(match(TokenType.OR)){
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+    private Expr prefix(){
+        switch (tokens.type(current)) {
+            case BANG:
+            case MINUS: {
+                advance();
+                Token operator = previous();
+                Expr right = expression(UNARY);
+                return new Expr.Unary(operator, right);
+            }
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(tokens.literal(current - 1));
+            case SUPER: {
+                advance();
+                Token keyword = previous();
+                consume(TokenType.DOT,"Expect '.' after 'super'.");
+                Token method = consume(TokenType.IDENTIFIER,
+                        "Expect superclass method name.");
+                return new Expr.Super(keyword, method);
+            }
+            case THIS:
+                advance();
+                return new Expr.This(previous());
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(previous());
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
         }
 
-        return expr;
+        throw error(peek(), "Expect expression.");
     }
 
     /**
-     * Method to parse 'and' expression
+     * Method to parse the rest of an expression after its operator was consumed
+     * assignment     → ( call "." )? IDENTIFIER "=" assignment
+     *                | logic_or ;
+     * logic_or       → logic_and ( "or" logic_and )* ;
+     * logic_and      → equality ( "and" equality )* ;
+     * equality       → comparison ( ( "!=" | "==" ) comparison )* ;
+     * comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+     * term           → factor ( ( "-" | "+" ) factor )* ;
+     * factor         → unary ( ( "/" | "*" ) unary )* ;
+     * call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
      *
+     * @param left Expr the operator applies to
+     * @param type TokenType of the operator
+     * @param binding int precedence of the operator
      * @return Expr
      */
-    private Expr and(){
-        Expr expr = equality();
+    private Expr infix(Expr left, TokenType type, int binding){
+        switch (type) {
+            case EQUAL: {
+                Token equals = previous();
+                // Assignment is right associative.
+                Expr value = expression(ASSIGNMENT);
+
+                if (left instanceof Expr.Variable) {
+                    Token name = ((Expr.Variable) left).name;
+                    return new Expr.Assign(name, value);
+                } else if (left instanceof Expr.Get) {
+                    Expr.Get get = (Expr.Get)left;
+                    return new Expr.Set(get.object, get.name, value);
+                }
 
-        while(match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+                error(equals, "Invalid assignment target.");
+                return left;
+            }
+            case AND:
+            case OR: {
+                Token operator = previous();
+                Expr right = expression(binding + 1);
+                return new Expr.Logical(left, operator, right);
+            }
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT: {
+                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, name);
+            }
         }
 
-        return expr;
+        Token operator = previous();
+        Expr right = expression(binding + 1);
+        return new Expr.Binary(left, operator, right);
     }
 
     /**
@@ -408,110 +501,6 @@ public class Parser {
     }
 
 
-    /**
-     * Method to parse equality rule
-     * equality → comparison ( ( "!=" | "==" ) comparison )* ;
-     *
-     * @return Expr
-     */
-    private Expr equality(){
-        Expr expr = comparison();
-
-        while(match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)){
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    /**
-     * Method to parse comparison rule
-     * comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-     * @return Expr
-     */
-    private Expr comparison(){
-        Expr expr = term();
-
-        while(match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)){
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    /**
-     * Method to parse term rule
-     * term → factor ( ( "-" | "+" ) factor )* ;
-     * @return Expr
-     */
-    private Expr term(){
-        Expr expr = factor();
-
-        while(match(TokenType.MINUS, TokenType.PLUS)){
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    /**
-     * Method to parse factor rule
-     * factor → unary ( ( "/" | "*" ) unary )* ;
-     * @return Expr
-     */
-    private Expr factor(){
-        Expr expr = unary();
-
-        while(match(TokenType.SLASH, TokenType.STAR)){
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    /**
-     * Method to parse unary rule
-     * unary → ( "!" | "-" ) unary | call ;
-     * @return Expr
-     */
-    private Expr unary(){
-        if(match(TokenType.BANG, TokenType.MINUS)){
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-        return call();
-    }
-
-    /**
-     * Method to parse call expression
-     * call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
-     *
-     * @return Expr
-     */
-    private Expr call(){
-        Expr expr = primary();
-
-        while(true) {
-            if(match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
-        }
-
-        return expr;
-    }
-
     /**
      * Method to finish call
      * arguments      → expression ( "," expression )* ;
@@ -535,45 +524,6 @@ public class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
-    /**
-     * Method to parse primary rule
-     * primary        → "true" | "false" | "nil" | "this"
-     *                  | NUMBER | STRING | IDENTIFIER | "(" expression ")"
-     *                  | "super" "." IDENTIFIER ;
-     * @return Expr
-     */
-    private Expr primary() {
-        if (match(TokenType.FALSE)) return new Expr.Literal(false);
-        if(match(TokenType.TRUE)) return new Expr.Literal(true);
-        if(match(TokenType.NIL)) return new Expr.Literal(null);
-
-        if(match(TokenType.NUMBER, TokenType.STRING)){
-            return new Expr.Literal(previous().literal);
-        }
-
-        if(match(TokenType.SUPER)) {
-            Token keyword = previous();
-            consume(TokenType.DOT,"Expect '.' after 'super'.");
-            Token method = consume(TokenType.IDENTIFIER,
-                    "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
-
-        if(match(TokenType.THIS)) return new Expr.This(previous());
-
-        if(match(TokenType.IDENTIFIER)){
-            return new Expr.Variable(previous());
-        }
-
-        if(match(TokenType.LEFT_PAREN)){
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        throw error(peek(), "Expect expression.");
-    }
-
     /**
      * Method to match token type
      *
@@ -600,7 +550,10 @@ public class Parser {
      * @return Token
      */
     private Token consume(TokenType type, String message){
-        if(check(type)) return advance();
+        if(check(type)) {
+            advance();
+            return previous();
+        }
 
         throw error(peek(), message);
     }
@@ -624,9 +577,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -653,17 +606,14 @@ public class Parser {
      */
     private boolean check(TokenType type){
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
     /**
      * Method to advance to the next step
-     *
-     * @return previous()
      */
-    private Token advance(){
+    private void advance(){
         if(!isAtEnd()) current++;
-        return previous();
     }
 
     /**
@@ -672,25 +622,25 @@ public class Parser {
      * @return boolean
      */
     private boolean isAtEnd(){
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
     /**
-     * Method to get current token
+     * Method to get current token, only materialized where a Token is needed
      *
      * @return Token
      */
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     /**
-     * Method to get previous token
+     * Method to get previous token, only materialized where a Token is needed
      *
      * @return Token
      */
     private Token previous(){
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
 
@@ -0,0 +1,53 @@
+/**
+ * Class for the inline cache of a property access node. It remembers the slot
+ * found for each instance shape seen at the node, and for assignments the shape
+ * the instance moves to, so repeated accesses skip the name lookup. Up to
+ * LIMIT shapes are cached, a node seeing more than that is left uncached.
+ */
+public class PropertyCache {
+    static final int LIMIT = 4;
+
+    private final Shape[] shapes = new Shape[LIMIT];
+    private final Shape[] transitions = new Shape[LIMIT];
+    private final int[] slots = new int[LIMIT];
+    private int count = 0;
+
+    /**
+     * Method to find the cache entry for a shape
+     *
+     * @param shape Shape
+     *
+     * @return int the entry index, or -1 on a miss
+     */
+    int find(Shape shape) {
+        for(int i = 0; i < count; i++) {
+            if(shapes[i] == shape) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Method to remember the slot and resulting shape for a shape, if there is room left
+     *
+     * @param shape Shape
+     * @param slot int
+     * @param transition Shape
+     */
+    void add(Shape shape, int slot, Shape transition) {
+        if(count == LIMIT) return;
+
+        shapes[count] = shape;
+        slots[count] = slot;
+        transitions[count] = transition;
+        count++;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    Shape transition(int entry) {
+        return transitions[entry];
+    }
+}
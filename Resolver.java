@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,13 +9,13 @@ import java.util.Stack;
  * Class for resolver
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
+    // function being resolved, the top level code included, and the layout of its stack frame
+    private FunctionState function = new FunctionState(null);
+    private int frameTop = 0;
+    private int frameSize = 0;
 
     /**
      * Enum for function type
@@ -33,10 +35,94 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     private ClassType currentClass = ClassType.NONE;
 
+    /**
+     * Class for a local variable declared in a scope, numbered with its slot in the
+     * function's frame on the interpreter's value stack. A local used by a nested
+     * function is captured, and its slot holds the Cell the closures share.
+     */
+    private static class Local {
+        final int frameSlot;
+        boolean defined = false;
+        boolean captured = false;
+        boolean assigned = false;
+        // var statement declaring the local, null for other declarations
+        Stmt.Var declaration = null;
+
+        Local(int frameSlot) {
+            this.frameSlot = frameSlot;
+        }
+    }
+
+    /**
+     * Class for a variable of an enclosing function captured by a function, either
+     * a local of the directly enclosing function or one of that function's upvalues
+     */
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
 
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    /**
+     * Class for a function being resolved, collecting the variables it captures
+     */
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final List<Upvalue> upvalues = new ArrayList<>();
+        // whether a nested function captures one of its locals
+        boolean escapes = false;
+
+        FunctionState(FunctionState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    /**
+     * Class for a lexical scope
+     */
+    private static class Scope {
+        final FunctionState function;
+        final int frameBase;
+        final Map<String, Local> locals = new HashMap<>();
+        final List<Reference> references = new ArrayList<>();
+
+        Scope(FunctionState function, int frameBase) {
+            this.function = function;
+            this.frameBase = frameBase;
+        }
+    }
+
+    /**
+     * Class for a declaration of, or a use of, a local whose storage is only known once
+     * the declaring scope ends and it is clear whether the local is captured
+     */
+    private static class Reference {
+        final Object node;
+        final Local local;
+        // upvalue of the using function, -1 when the local is its own
+        final int upvalue;
+
+        Reference(Object node, Local local, int upvalue) {
+            this.node = node;
+            this.local = local;
+            this.upvalue = upvalue;
+        }
+    }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
+        // A block declaring nothing needs no scope, its statements resolve in the enclosing one.
+        stmt.scoped = declaresLocals(stmt.statements);
+        if(!stmt.scoped) {
+            resolve(stmt.statements);
+            return null;
+        }
+
+        stmt.releaseSlot = releaseSlot();
         beginScope();
         resolve(stmt.statements);
         endScope();
@@ -50,6 +136,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
         declare(stmt.name);
         define(stmt.name);
+        bindDeclaration(stmt, stmt.name);
 
         if(stmt.superclass != null &&
             stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -61,12 +148,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             resolve(stmt.superclass);
         }
 
+        // "super" is a local around the methods, which capture it, "this" is
+        // the first slot of every method's frame.
         if(stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superSlot = defineSynthetic("super").frameSlot;
         }
-        beginScope();
-        scopes.peek().put("this", true);
 
         for(Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
@@ -76,7 +163,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             resolveFunction(method, declaration);
         }
 
-        endScope();
         if(stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
@@ -90,10 +176,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // The loop variable lives in one scope for the whole loop.
+        stmt.releaseSlot = releaseSlot();
+        beginScope();
+        if(stmt.initializer != null) resolve(stmt.initializer);
+        if(stmt.condition != null) resolve(stmt.condition);
+        resolve(stmt.body);
+        if(stmt.increment != null) resolve(stmt.increment);
+        endScope();
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         declare(stmt.name);
         define(stmt.name);
+        bindDeclaration(stmt, stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -123,6 +223,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
                 Fein.error(stmt.keyword , "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
+
+            // Nothing is left to do in the caller once the callee returns.
+            stmt.tailCall = stmt.value instanceof Expr.Call && currentFunction != FunctionType.NONE;
         }
 
         return null;
@@ -135,6 +238,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        bindDeclaration(stmt, stmt.name);
         return null;
     }
 
@@ -147,19 +251,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty()
-                && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE ) {
-            Fein.error(expr.name, "Can't read local variable in its own initializer.");
+        if(!scopes.isEmpty()) {
+            Local local = scopes.peek().locals.get(expr.name.lexeme);
+            if(local != null && !local.defined) {
+                Fein.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
 
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr){
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr, expr.name.lexeme);
         return null;
     }
 
@@ -220,7 +326,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         } else if (currentClass != ClassType.SUBCLASS) {
             Fein.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "super");
+
+        // The method is looked up on the superclass but bound to the current receiver.
+        expr.receiver = new Expr.This(expr.keyword);
+        resolveLocal(expr.receiver, "this");
         return null;
     }
 
@@ -231,7 +341,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr, "this");
         return null;
     }
 
@@ -249,12 +359,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private void declare(Token name) {
         if(scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope  = scopes.peek();
-        if(scope.containsKey(name.lexeme)) {
+        Scope scope  = scopes.peek();
+        if(scope.locals.containsKey(name.lexeme)) {
             Fein.error(name, "Already a variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme, false);
+        addLocal(scope, name.lexeme);
     }
 
     /**
@@ -265,44 +375,245 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private void define(Token name) {
         if(scopes.isEmpty()) return;
 
-        scopes.peek().put(name.lexeme , true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
+    }
+
+    /**
+     * Method to add an implicitly defined variable such as "this" to the current scope
+     *
+     * @param name String
+     *
+     * @return Local
+     */
+    private Local defineSynthetic(String name) {
+        Local local = addLocal(scopes.peek(), name);
+        local.defined = true;
+        return local;
+    }
+
+    /**
+     * Method to number a new local in a scope and reserve its slot in the frame
+     *
+     * @param scope Scope
+     * @param name String
+     *
+     * @return Local
+     */
+    private Local addLocal(Scope scope, String name) {
+        Local local = new Local(scope.frameBase + scope.locals.size());
+        scope.locals.put(name, local);
+
+        frameTop = local.frameSlot + 1;
+        frameSize = Math.max(frameSize, frameTop);
+        return local;
+    }
+
+    /**
+     * Method to record where the variable introduced by a declaration is stored
+     *
+     * @param declaration Stmt
+     * @param name Token
+     */
+    private void bindDeclaration(Stmt declaration, Token name) {
+        if(scopes.isEmpty()) return;
+
+        Scope scope = scopes.peek();
+        Local local = scope.locals.get(name.lexeme);
+        if(declaration instanceof Stmt.Var) local.declaration = (Stmt.Var) declaration;
+        scope.references.add(new Reference(declaration, local, -1));
     }
 
     /**
      * Method to resolve function
      *
-     * @param function Stmt.Function
+     * @param declaration Stmt.Function
      */
-    private void resolveFunction(Stmt.Function function, FunctionType type){
+    private void resolveFunction(Stmt.Function declaration, FunctionType type){
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        // Each call gets a frame of its own, laid out from slot zero.
+        int enclosingFrameTop = frameTop;
+        int enclosingFrameSize = frameSize;
+        function = new FunctionState(function);
+        frameTop = 0;
+        frameSize = 0;
+
         beginScope();
-        for(Token param : function.params) {
+        List<Local> parameters = new ArrayList<>();
+        if(type == FunctionType.METHOD || type == FunctionType.INTIALIZER) {
+            parameters.add(defineSynthetic("this"));
+        }
+        for(Token param : declaration.params) {
             declare(param);
             define(param);
+            parameters.add(scopes.peek().locals.get(param.lexeme));
         }
 
-        resolve(function.body);
+        resolve(declaration.body);
         endScope();
+        declaration.frameSize = frameSize;
+        declaration.escapes = function.escapes;
+        // The receiver of a method takes the first slot, ahead of the parameters.
+        declaration.method = type == FunctionType.METHOD || type == FunctionType.INTIALIZER;
+
+        // The receiver and arguments arrive as plain values, the captured ones are
+        // moved into cells when the call starts.
+        int[] captured = new int[parameters.size()];
+        int count = 0;
+        for(Local parameter : parameters) {
+            if(parameter.captured) captured[count++] = parameter.frameSlot;
+        }
+        declaration.capturedParameters = Arrays.copyOf(captured, count);
+
+        int upvalues = function.upvalues.size();
+        declaration.upvalueIndexes = new int[upvalues];
+        declaration.upvalueLocals = new boolean[upvalues];
+        for(int i = 0; i < upvalues; i++) {
+            declaration.upvalueIndexes[i] = function.upvalues.get(i).index;
+            declaration.upvalueLocals[i] = function.upvalues.get(i).isLocal;
+        }
+
+        function = function.enclosing;
+        frameTop = enclosingFrameTop;
+        frameSize = enclosingFrameSize;
         currentFunction = enclosingFunction;
     }
 
     /**
-     * Method to resolve local
+     * Method to resolve local by finding the innermost scope declaring the name. A use
+     * from inside a nested function captures the variable, which every function in
+     * between then carries as an upvalue.
      *
      * @param expr Expr
-     * @param name Token
+     * @param name String
      */
-    private void resolveLocal(Expr expr, Token name) {
+    private void resolveLocal(Expr expr, String name) {
         for(int i = scopes.size() - 1; i >= 0 ; i--){
-            if(scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Scope scope = scopes.get(i);
+            Local local = scope.locals.get(name);
+            if(local != null) {
+                if(expr instanceof Expr.Assign) local.assigned = true;
+
+                int upvalue = -1;
+                if(scope.function != function) {
+                    local.captured = true;
+                    scope.function.escapes = true;
+                    upvalue = resolveUpvalue(function, scope.function, local);
+                }
+                scope.references.add(new Reference(expr, local, upvalue));
                 return;
             }
         }
     }
 
+    /**
+     * Method to find or create the upvalue through which a function reaches a local
+     * of an enclosing function
+     *
+     * @param state FunctionState using the local
+     * @param owner FunctionState declaring the local
+     * @param local Local
+     *
+     * @return int upvalue index
+     */
+    private int resolveUpvalue(FunctionState state, FunctionState owner, Local local) {
+        if(state.enclosing == owner) return addUpvalue(state, local.frameSlot, true);
+
+        return addUpvalue(state, resolveUpvalue(state.enclosing, owner, local), false);
+    }
+
+    /**
+     * Method to add an upvalue to a function, reusing an existing one for the same variable
+     *
+     * @param state FunctionState
+     * @param index int
+     * @param isLocal boolean
+     *
+     * @return int upvalue index
+     */
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for(int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    /**
+     * Method to store the resolved location of a local on a node. A nested function
+     * reaches the local through its upvalue, the declaring function through its frame
+     * slot, which holds a cell if the local is captured.
+     *
+     * @param reference Reference
+     */
+    private void bind(Reference reference) {
+        int stackSlot = -1;
+        int cellSlot = -1;
+        int upvalue = reference.upvalue;
+        if(upvalue == -1) {
+            if(reference.local.captured) {
+                cellSlot = reference.local.frameSlot;
+            } else {
+                stackSlot = reference.local.frameSlot;
+            }
+        }
+
+        Object node = reference.node;
+        if(node instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) node;
+            variable.stackSlot = stackSlot;
+            variable.cellSlot = cellSlot;
+            variable.upvalue = upvalue;
+
+            // A local holding the value it was declared with for good lets the
+            // optimizer put a literal initializer in place of the use.
+            if(!reference.local.assigned && !reference.local.captured) {
+                variable.constant = reference.local.declaration;
+            }
+        } else if(node instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) node;
+            assign.stackSlot = stackSlot;
+            assign.cellSlot = cellSlot;
+            assign.upvalue = upvalue;
+        } else if(node instanceof Expr.This) {
+            ((Expr.This) node).stackSlot = stackSlot;
+            ((Expr.This) node).cellSlot = cellSlot;
+            ((Expr.This) node).upvalue = upvalue;
+        } else if(node instanceof Expr.Super) {
+            ((Expr.Super) node).upvalue = upvalue;
+        } else if(node instanceof Stmt.Var) {
+            ((Stmt.Var) node).stackSlot = stackSlot;
+            ((Stmt.Var) node).cellSlot = cellSlot;
+        } else if(node instanceof Stmt.Function) {
+            ((Stmt.Function) node).stackSlot = stackSlot;
+            ((Stmt.Function) node).cellSlot = cellSlot;
+        } else if(node instanceof Stmt.Class) {
+            ((Stmt.Class) node).stackSlot = stackSlot;
+            ((Stmt.Class) node).cellSlot = cellSlot;
+        }
+    }
+
+    /**
+     * Method to check whether statements declare a variable, function or class of
+     * their own, nested blocks and functions declare theirs in scopes of their own
+     *
+     * @param statements List<Stmt>
+     *
+     * @return boolean
+     */
+    private static boolean declaresLocals(List<Stmt> statements) {
+        for(Stmt statement : statements) {
+            if(statement instanceof Stmt.Var || statement instanceof Stmt.Function ||
+                    statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Method to resolve statements
      *
@@ -333,17 +644,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
 
     /**
-     * Method to begin scope and push hashmap to stack
+     * Method to get the frame slot from which the scope about to begin is released
+     * when it ends. Only top level scopes are released, a function's frame is
+     * released as a whole when the call returns.
+     *
+     * @return int, -1 inside functions
+     */
+    private int releaseSlot() {
+        return function.enclosing == null ? frameTop : -1;
+    }
+
+    /**
+     * Method to begin scope and push it to stack
      */
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope(function, frameTop));
     }
 
     /**
-     * Method to end scope and pop out of the stack
+     * Method to end scope and pop out of the stack. Every use of its locals has been
+     * seen by now, so whether they are captured is settled and the uses can be bound.
      */
     private void endScope(){
-        scopes.pop();
+        Scope scope = scopes.pop();
+        for(Reference reference : scope.references) {
+            bind(reference);
+        }
+
+        frameTop = scope.frameBase;
     }
 
 
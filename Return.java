@@ -1,11 +0,0 @@
-/**
- * Class for return statement runtime exception
- */
-public class Return extends RuntimeException {
-    final Object value;
-
-    Return(Object value){
-        super(null, null, false, false);
-        this.value = value;
-    }
-}
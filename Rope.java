@@ -0,0 +1,86 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Class for a string value built by concatenation. The concatenation only links
+ * the two halves, and the characters are copied once, when the rope is first
+ * flattened to be printed, compared or measured. Building a string piece by piece
+ * in a loop therefore takes linear instead of quadratic time.
+ */
+final class Rope implements CharSequence {
+    // results shorter than this are copied right away, a small string is cheaper flat
+    private static final int MIN_LENGTH = 64;
+
+    // halves of the rope, dropped once it is flattened
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    private String flat = null;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    /**
+     * Method to concatenate two string values
+     *
+     * @param left CharSequence, a String or a Rope
+     * @param right CharSequence, a String or a Rope
+     *
+     * @return CharSequence
+     */
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if(left.length() == 0) return right;
+        if(right.length() == 0) return left;
+        if(left.length() + right.length() < MIN_LENGTH) return left.toString() + right;
+
+        return new Rope(left, right);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Method to flatten the rope, copying each piece once. A rope built in a loop
+     * is as deep as the loop ran, so the pieces are walked without recursion.
+     *
+     * @return String
+     */
+    @Override
+    public String toString() {
+        if(flat != null) return flat;
+
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while(!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if(piece instanceof Rope && ((Rope) piece).flat == null) {
+                Rope rope = (Rope) piece;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(piece.toString());
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+        return flat;
+    }
+}
@@ -1,58 +1,100 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
 import java.util.Map;
 
 
 /**
  * class for scanner
+ *
+ * The scanner reads in place from the UTF-8 bytes of a ByteBuffer, which may be a
+ * memory mapped file. Everything but the text of string literals and comments is
+ * ASCII, so the bytes are scanned as characters and only the text the tokens keep
+ * is decoded. Keywords are matched on the buffer without building their text, and
+ * tokens are scanned one at a time as the TokenStream asks for them, kept only as
+ * source ranges, so only the values of literals are copied while scanning.
  */
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // UTF-8 source, read in place
+    private final ByteBuffer source;
+    private final int length;
+    private final TokenStream tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
-    private static final Map<String, TokenType> keywords;
+
+    // lexemes of the tokens whose text never varies
+    private static final Map<TokenType, String> fixedLexemes = new EnumMap<>(TokenType.class);
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
+        fixedLexemes.put(TokenType.LEFT_PAREN, "(");
+        fixedLexemes.put(TokenType.RIGHT_PAREN, ")");
+        fixedLexemes.put(TokenType.LEFT_BRACE, "{");
+        fixedLexemes.put(TokenType.RIGHT_BRACE, "}");
+        fixedLexemes.put(TokenType.COMMA, ",");
+        fixedLexemes.put(TokenType.DOT, ".");
+        fixedLexemes.put(TokenType.MINUS, "-");
+        fixedLexemes.put(TokenType.PLUS, "+");
+        fixedLexemes.put(TokenType.SEMICOLON, ";");
+        fixedLexemes.put(TokenType.SLASH, "/");
+        fixedLexemes.put(TokenType.STAR, "*");
+        fixedLexemes.put(TokenType.BANG, "!");
+        fixedLexemes.put(TokenType.BANG_EQUAL, "!=");
+        fixedLexemes.put(TokenType.EQUAL, "=");
+        fixedLexemes.put(TokenType.EQUAL_EQUAL, "==");
+        fixedLexemes.put(TokenType.GREATER, ">");
+        fixedLexemes.put(TokenType.GREATER_EQUAL, ">=");
+        fixedLexemes.put(TokenType.LESS, "<");
+        fixedLexemes.put(TokenType.LESS_EQUAL, "<=");
+        fixedLexemes.put(TokenType.AND, "and");
+        fixedLexemes.put(TokenType.CLASS, "class");
+        fixedLexemes.put(TokenType.ELSE, "else");
+        fixedLexemes.put(TokenType.FALSE, "false");
+        fixedLexemes.put(TokenType.FOR, "for");
+        fixedLexemes.put(TokenType.FUN, "fun");
+        fixedLexemes.put(TokenType.IF, "if");
+        fixedLexemes.put(TokenType.NIL, "nil");
+        fixedLexemes.put(TokenType.OR, "or");
+        fixedLexemes.put(TokenType.PRINT, "print");
+        fixedLexemes.put(TokenType.RETURN, "return");
+        fixedLexemes.put(TokenType.SUPER, "super");
+        fixedLexemes.put(TokenType.THIS, "this");
+        fixedLexemes.put(TokenType.TRUE, "true");
+        fixedLexemes.put(TokenType.VAR, "var");
+        fixedLexemes.put(TokenType.WHILE, "while");
     }
 
-    public Scanner(String source) {
-        this.source = source;
+    public Scanner(ByteBuffer source) {
+        this.source = source.slice();
+        this.length = this.source.remaining();
+        this.tokens = new TokenStream(this, this.source);
     }
 
     /**
-     * Method to scan tokens
+     * Method to get the stream of tokens, which scans as the parser reads it
      *
-     * @return List<Token>
+     * @return TokenStream
      */
-    List<Token> scanTokens(){
-        while(!isAtEnd()){
+    TokenStream tokens(){
+        return tokens;
+    }
+
+    /**
+     * Method to scan up to and including the next token, skipping whitespace,
+     * comments and characters that are reported as errors
+     */
+    void scanNext(){
+        int scanned = tokens.size();
+        while(tokens.size() == scanned){
+            if(isAtEnd()){
+                tokens.add(TokenType.EOF, current, 0, line);
+                return;
+            }
+
             // at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
-
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
     }
 
     /**
@@ -108,6 +150,8 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else{
+                    // a character outside ASCII takes several bytes, report it once
+                    while(isContinuation(peek())) advance();
                     Fein.error(line, "Unexpected character.");
                 }
                 break;
@@ -127,7 +171,7 @@ public class Scanner {
             Fein.error(startComment, "Unterminated block comment");
             return;
         }
-        if(source.charAt( current - 1) == '*'){
+        if(charAt( current - 1) == '*'){
             advance();
         } else{
             Fein.error(startComment, "Unterminated block comment");
@@ -141,10 +185,66 @@ public class Scanner {
     private void identifier() {
         while(isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        TokenType type = keyword();
+        addToken(type == null ? TokenType.IDENTIFIER : type);
+    }
+
+    /**
+     * Method to match the current lexeme against the keywords, branching on its
+     * characters like a trie instead of building its text for a lookup
+     *
+     * @return TokenType, null when the lexeme is not a keyword
+     */
+    private TokenType keyword() {
+        switch (charAt(start)) {
+            case 'a': return rest(1, "nd", TokenType.AND);
+            case 'c': return rest(1, "lass", TokenType.CLASS);
+            case 'e': return rest(1, "lse", TokenType.ELSE);
+            case 'f':
+                if(current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a': return rest(2, "lse", TokenType.FALSE);
+                        case 'o': return rest(2, "r", TokenType.FOR);
+                        case 'u': return rest(2, "n", TokenType.FUN);
+                    }
+                }
+                return null;
+            case 'i': return rest(1, "f", TokenType.IF);
+            case 'n': return rest(1, "il", TokenType.NIL);
+            case 'o': return rest(1, "r", TokenType.OR);
+            case 'p': return rest(1, "rint", TokenType.PRINT);
+            case 'r': return rest(1, "eturn", TokenType.RETURN);
+            case 's': return rest(1, "uper", TokenType.SUPER);
+            case 't':
+                if(current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'h': return rest(2, "is", TokenType.THIS);
+                        case 'r': return rest(2, "ue", TokenType.TRUE);
+                    }
+                }
+                return null;
+            case 'v': return rest(1, "ar", TokenType.VAR);
+            case 'w': return rest(1, "hile", TokenType.WHILE);
+        }
+
+        return null;
+    }
+
+    /**
+     * Helper method to check the rest of the current lexeme spells out a keyword
+     *
+     * @param from int where the rest starts in the lexeme
+     * @param rest String
+     * @param type TokenType
+     *
+     * @return TokenType, null when the lexeme is something else
+     */
+    private TokenType rest(int from, String rest, TokenType type) {
+        if(current - start != from + rest.length()) return null;
+        for(int i = 0; i < rest.length(); i++) {
+            if(charAt(start + from + i) != rest.charAt(i)) return null;
+        }
+        return type;
     }
 
     /**
@@ -161,7 +261,8 @@ public class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        double value = Double.parseDouble(text(start, current));
+        tokens.add(TokenType.NUMBER, start, current - start, line, value);
     }
 
     /**
@@ -180,8 +281,7 @@ public class Scanner {
         // the closing ".
         advance();
         // Trim the surronding quotes
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        tokens.add(TokenType.STRING, start, current - start, line, text(start + 1, current - 1));
     }
 
     /**
@@ -220,6 +320,17 @@ public class Scanner {
         return c >= '0' && c <= '9';
     }
 
+    /**
+     * Helper method to check for a byte continuing a UTF-8 encoded character
+     *
+     * @param c char
+     *
+     * @return boolean
+     */
+    private boolean isContinuation(char c){
+        return (c & 0xC0) == 0x80;
+    }
+
     /**
      * Lookahead method to check subsequent characters
      *
@@ -227,7 +338,7 @@ public class Scanner {
      */
     private char peek(){
         if(isAtEnd()) return '\0';
-        return source.charAt(current);
+        return charAt(current);
     }
 
     /**
@@ -236,8 +347,8 @@ public class Scanner {
      * @return char
      */
     private char peekNext(){
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if(current + 1 >= length) return '\0';
+        return charAt(current + 1);
     }
 
     /**
@@ -249,7 +360,7 @@ public class Scanner {
      */
     private boolean match(char expected){
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(charAt(current) != expected) return false;
 
         current++;
         return true;
@@ -262,7 +373,7 @@ public class Scanner {
      */
     private char advance(){
         current++;
-        return source.charAt(current - 1);
+        return charAt(current - 1);
     }
 
     /**
@@ -271,18 +382,57 @@ public class Scanner {
      * @param type Token type
      */
     private void addToken(TokenType type){
-        addToken(type, null);
+        tokens.add(type, start, current - start, line);
     }
 
     /**
-     * Overloaded method to add token
+     * Method to get the lexeme of a token whose text never varies
      *
      * @param type TokenType
-     * @param literal Object
+     *
+     * @return String, null for tokens whose text varies
+     */
+    static String fixedLexeme(TokenType type) {
+        return fixedLexemes.get(type);
+    }
+
+    /**
+     * Helper method to read a source byte as a character, which it is outside
+     * string literals and comments
+     *
+     * @param index int
+     *
+     * @return char
+     */
+    private char charAt(int index) {
+        return (char) (source.get(index) & 0xFF);
+    }
+
+    /**
+     * Helper method to copy a range of the source into a string
+     *
+     * @param from int
+     * @param to int
+     *
+     * @return String
+     */
+    private String text(int from, int to) {
+        return decode(source, from, to);
+    }
+
+    /**
+     * Method to decode a range of UTF-8 source into a string
+     *
+     * @param source ByteBuffer
+     * @param from int
+     * @param to int
+     *
+     * @return String
      */
-    private void addToken(TokenType type, Object literal){
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    static String decode(ByteBuffer source, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        source.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     /**
@@ -291,6 +441,6 @@ public class Scanner {
      * @return boolean
      */
     private boolean isAtEnd(){
-        return current >= source.length();
+        return current >= length;
     }
 }
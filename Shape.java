@@ -0,0 +1,54 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for the hidden class of an instance. It maps field names to slots of the
+ * instance's value array, and instances that added the same fields in the same
+ * order share one shape. Every class has its own root shape, so a shape also
+ * identifies the class of the instances that have it.
+ */
+public class Shape {
+    final int size;
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape(){
+        this.size = 0;
+        this.slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name){
+        this.size = parent.size + 1;
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.size);
+    }
+
+    /**
+     * Method to find the slot of a field
+     *
+     * @param name String
+     *
+     * @return int the slot, or -1 when the shape has no such field
+     */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Method to get the shape reached by adding a field, which takes the next slot
+     *
+     * @param name String
+     *
+     * @return Shape
+     */
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if(next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+
+        return next;
+    }
+}
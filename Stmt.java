@@ -5,6 +5,7 @@ abstract class Stmt {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
     R visitExpressionStmt(Expression stmt);
+    R visitForStmt(For stmt);
     R visitFunctionStmt(Function stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
@@ -23,6 +24,8 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    boolean scoped;
+    int releaseSlot = -1;
     }
  static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
@@ -39,6 +42,9 @@ abstract class Stmt {
     final Token name;
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    int stackSlot = -1;
+    int cellSlot = -1;
+    int superSlot = -1;
     }
  static class Expression extends Stmt {
     Expression(Expr expression) {
@@ -52,6 +58,25 @@ abstract class Stmt {
 
     final Expr expression;
     }
+ static class For extends Stmt {
+    For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+        this.initializer = initializer;
+        this.condition = condition;
+        this.increment = increment;
+        this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    final Stmt initializer;
+    final Expr condition;
+    final Expr increment;
+    final Stmt body;
+    int releaseSlot = -1;
+    }
  static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
         this.name = name;
@@ -67,6 +92,14 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int frameSize;
+    int stackSlot = -1;
+    int cellSlot = -1;
+    boolean escapes;
+    int[] capturedParameters;
+    int[] upvalueIndexes;
+    boolean[] upvalueLocals;
+    boolean method;
     }
  static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -109,6 +142,7 @@ abstract class Stmt {
 
     final Token keyword;
     final Expr value;
+    boolean tailCall;
     }
  static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -123,6 +157,8 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    int stackSlot = -1;
+    int cellSlot = -1;
     }
  static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -0,0 +1,185 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class for the stream of tokens the parser reads, pulled from the scanner on
+ * demand. Only the last few tokens are kept, in a ring of parallel arrays holding
+ * each token's type, source range, line and literal value, so the tokens of a
+ * program are never all in memory at once. A Token object is only created for a
+ * token the syntax tree keeps or an error reports, and identifiers are interned
+ * as they are materialized.
+ */
+class TokenStream {
+    private static final TokenType[] types = TokenType.values();
+    // tokens kept behind the newest one, the parser looks at most one back
+    private static final int CAPACITY = 8;
+    private static final int MASK = CAPACITY - 1;
+
+    private final Scanner scanner;
+    // UTF-8 source the ranges point into
+    private final ByteBuffer source;
+
+    private final byte[] kinds = new byte[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    // values of number and string literals
+    private final Object[] literals = new Object[CAPACITY];
+    // tokens scanned so far
+    private int size = 0;
+
+    // open addressing table of the identifier names materialized so far
+    private String[] names = new String[64];
+    private int nameCount = 0;
+
+    /**
+     * Constructor for a stream over source bytes
+     *
+     * @param scanner Scanner producing the tokens
+     * @param source ByteBuffer
+     */
+    TokenStream(Scanner scanner, ByteBuffer source) {
+        this.scanner = scanner;
+        this.source = source;
+    }
+
+    /**
+     * Method for the scanner to append a token
+     *
+     * @param type TokenType
+     * @param start int
+     * @param length int
+     * @param line int
+     */
+    void add(TokenType type, int start, int length, int line) {
+        add(type, start, length, line, null);
+    }
+
+    /**
+     * Method for the scanner to append a number or string literal token
+     *
+     * @param type TokenType
+     * @param start int
+     * @param length int
+     * @param line int
+     * @param literal Object
+     */
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        int slot = size & MASK;
+        kinds[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        literals[slot] = literal;
+        size++;
+    }
+
+    /**
+     * Method to get the number of tokens scanned so far
+     *
+     * @return int
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Method to find the ring slot of a token, scanning up to it when needed
+     *
+     * @param index int
+     *
+     * @return int
+     */
+    private int slot(int index) {
+        while(index >= size) scanner.scanNext();
+        if(index < size - CAPACITY) {
+            throw new IllegalStateException("Token " + index + " was already discarded.");
+        }
+        return index & MASK;
+    }
+
+    TokenType type(int index) {
+        return types[kinds[slot(index)]];
+    }
+
+    /**
+     * Method to get the value of a literal token
+     *
+     * @param index int
+     *
+     * @return Object, null for tokens that are not literals
+     */
+    Object literal(int index) {
+        return literals[slot(index)];
+    }
+
+    /**
+     * Method to create the Token object for a token
+     *
+     * @param index int
+     *
+     * @return Token
+     */
+    Token token(int index) {
+        int slot = slot(index);
+        TokenType type = types[kinds[slot]];
+        return new Token(type, lexeme(slot, type), literals[slot], lines[slot]);
+    }
+
+    private String lexeme(int slot, TokenType type) {
+        String fixed = Scanner.fixedLexeme(type);
+        if(fixed != null) return fixed;
+        if(type == TokenType.EOF) return "";
+        if(type == TokenType.IDENTIFIER) return intern(starts[slot], lengths[slot]);
+
+        return Scanner.decode(source, starts[slot], starts[slot] + lengths[slot]);
+    }
+
+    /**
+     * Method to get the text of an identifier, materializing it only the first
+     * time the name appears
+     *
+     * @param start int
+     * @param length int
+     *
+     * @return String
+     */
+    private String intern(int start, int length) {
+        int hash = 0;
+        for(int i = 0; i < length; i++) {
+            hash = 31 * hash + source.get(start + i);
+        }
+
+        int mask = names.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while(names[slot] != null) {
+            if(spells(names[slot], start, length)) return names[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        String name = Scanner.decode(source, start, start + length);
+        names[slot] = name;
+        if(++nameCount * 2 > names.length) growNames();
+        return name;
+    }
+
+    private boolean spells(String name, int start, int length) {
+        if(name.length() != length) return false;
+        for(int i = 0; i < length; i++) {
+            if(name.charAt(i) != source.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void growNames() {
+        String[] previous = names;
+        names = new String[previous.length * 2];
+        int mask = names.length - 1;
+        for(String name : previous) {
+            if(name == null) continue;
+            int hash = name.hashCode();
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while(names[slot] != null) slot = (slot + 1) & mask;
+            names[slot] = name;
+        }
+    }
+}
@@ -0,0 +1,653 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for the stack based virtual machine executing compiled Fein bytecode
+ */
+class VM {
+    private static final int FRAMES_MAX = 65536;
+    private static final Object UNDEFINED = new Object();
+
+    /**
+     * Class for an active function call: the closure being run, its instruction
+     * pointer and the stack slot where its window of locals begins
+     */
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+
+    /**
+     * Class for errors raised inside the run loop before the source line is known
+     */
+    private static class Trap extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Trap(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues = null;
+
+    private final Map<String, Integer> globalIndex = new HashMap<>();
+    private String[] globalNames = new String[64];
+    private Object[] globals = new Object[64];
+
+    VM() {
+        Arrays.fill(globals, UNDEFINED);
+        defineNative("clock", 0, arguments -> (double)System.currentTimeMillis() / 1000.0);
+    }
+
+    /**
+     * Method to run a compiled script
+     *
+     * @param script VmFunction
+     */
+    void interpret(VmFunction script) {
+        try {
+            VmClosure closure = new VmClosure(script);
+            push(closure);
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Fein.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, 0, Math.max(sp, 1), null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+        }
+    }
+
+    /**
+     * Method to find or allocate the slot of a global variable. Slots are shared
+     * by every chunk compiled for this VM so globals survive between REPL lines.
+     *
+     * @param name String
+     *
+     * @return int
+     */
+    int globalSlot(String name) {
+        Integer slot = globalIndex.get(name);
+        if(slot != null) return slot;
+
+        int index = globalIndex.size();
+        if(index == globals.length) {
+            globals = Arrays.copyOf(globals, index * 2);
+            Arrays.fill(globals, index, globals.length, UNDEFINED);
+            globalNames = Arrays.copyOf(globalNames, index * 2);
+        }
+        globalNames[index] = name;
+        globalIndex.put(name, index);
+        return index;
+    }
+
+    /**
+     * Main interpreter loop: decodes and executes instructions of the current frame
+     */
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        // set by a TAIL_CALL prefix for the call instruction after it
+        boolean tail = false;
+        // The stack and its top are kept in locals, and written back to the fields
+        // around calls out of the loop that use them.
+        Object[] stack = this.stack;
+        int sp = this.sp;
+
+        try {
+            for(;;) {
+                switch (code[ip++]) {
+                    case OpCode.CONSTANT:
+                        stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        break;
+                    case OpCode.NIL: stack[sp++] = null; break;
+                    case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                    case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                    case OpCode.POP: sp--; break;
+
+                    case OpCode.GET_LOCAL:
+                        stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        Object value = globals[slot];
+                        if(value == UNDEFINED) {
+                            throw new Trap("Undefined variable'" + globalNames[slot] + "'.");
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL:
+                        globals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)] = stack[--sp];
+                        ip += 2;
+                        break;
+                    case OpCode.SET_GLOBAL: {
+                        int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        if(globals[slot] == UNDEFINED) {
+                            throw new Trap("Undefined variable '" + globalNames[slot] + "'.");
+                        }
+                        globals[slot] = stack[sp - 1];
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        stack[sp++] = upvalue.isOpen() ? stack[upvalue.slot] : upvalue.closed;
+                        break;
+                    }
+                    case OpCode.SET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                        if(upvalue.isOpen()) {
+                            stack[upvalue.slot] = stack[sp - 1];
+                        } else {
+                            upvalue.closed = stack[sp - 1];
+                        }
+                        break;
+                    }
+                    case OpCode.GET_PROPERTY: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object object = stack[sp - 1];
+                        if(!(object instanceof VmInstance)) {
+                            throw new Trap("Only instances have properties.");
+                        }
+
+                        VmInstance instance = (VmInstance) object;
+                        Object value = instance.fields.get(name);
+                        if(value != null || instance.fields.containsKey(name)) {
+                            stack[sp - 1] = value;
+                            break;
+                        }
+                        stack[sp - 1] = bindMethod(instance.klass, instance, name);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        Object object = stack[sp - 2];
+                        if(!(object instanceof VmInstance)) {
+                            throw new Trap("Only instances have fields.");
+                        }
+
+                        Object value = stack[--sp];
+                        ((VmInstance) object).fields.put(name, value);
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OpCode.GET_SUPER: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        VmClass superclass = (VmClass) stack[--sp];
+                        stack[sp - 1] = bindMethod(superclass, stack[sp - 1], name);
+                        break;
+                    }
+
+                    case OpCode.EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a > (double) b;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a >= (double) b;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a < (double) b;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a <= (double) b;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = add(stack[sp - 1], b);
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a - (double) b;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        stack[sp - 1] = (double) a * (double) b;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        checkNumberOperands(a, b);
+                        if(b.toString().startsWith("0")) {
+                            throw new Trap("Cannot divide by 0.");
+                        }
+                        stack[sp - 1] = (double) a / (double) b;
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                        break;
+                    case OpCode.NEGATE: {
+                        Object value = stack[sp - 1];
+                        if(!(value instanceof Double)) {
+                            throw new Trap("Operand must be a number");
+                        }
+                        stack[sp - 1] = -(double) value;
+                        break;
+                    }
+
+                    case OpCode.PRINT:
+                        System.out.println(Interpreter.stringify(stack[--sp]));
+                        break;
+                    case OpCode.JUMP:
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if(!Interpreter.isTruthy(stack[sp - 1])) {
+                            ip += ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.LOOP:
+                        ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                        break;
+
+                    case OpCode.CALL: {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        int depth = frameCount;
+                        this.sp = sp;
+                        callValue(stack[sp - 1 - argCount], argCount);
+                        if(tail) {
+                            tail = false;
+                            if(frameCount > depth) replaceCaller();
+                        }
+                        stack = this.stack;
+                        sp = this.sp;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.INVOKE: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        int depth = frameCount;
+                        this.sp = sp;
+                        invoke(name, argCount);
+                        if(tail) {
+                            tail = false;
+                            if(frameCount > depth) replaceCaller();
+                        }
+                        stack = this.stack;
+                        sp = this.sp;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.SUPER_INVOKE: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        int argCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame.ip = ip;
+                        VmClass superclass = (VmClass) stack[--sp];
+                        int depth = frameCount;
+                        this.sp = sp;
+                        invokeFromClass(superclass, name, argCount);
+                        if(tail) {
+                            tail = false;
+                            if(frameCount > depth) replaceCaller();
+                        }
+                        stack = this.stack;
+                        sp = this.sp;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.TAIL_CALL:
+                        tail = true;
+                        break;
+                    case OpCode.CLOSURE: {
+                        VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        VmClosure closure = new VmClosure(function);
+                        for(int i = 0; i < function.upvalueCount; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            closure.upvalues[i] = isLocal
+                                    ? captureUpvalue(base + index)
+                                    : frame.closure.upvalues[index];
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        sp--;
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = stack[--sp];
+                        closeUpvalues(base);
+                        frameCount--;
+                        if(frameCount == 0) {
+                            sp = 0;
+                            return;
+                        }
+
+                        sp = base;
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+
+                    case OpCode.CLASS:
+                        stack[sp++] = new VmClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                        ip += 2;
+                        break;
+                    case OpCode.INHERIT: {
+                        Object superclass = stack[sp - 2];
+                        if(!(superclass instanceof VmClass)) {
+                            throw new Trap("Superclass must be a class.");
+                        }
+
+                        VmClass subclass = (VmClass) stack[sp - 1];
+                        subclass.methods.putAll(((VmClass) superclass).methods);
+                        subclass.initializer = ((VmClass) superclass).initializer;
+                        sp--;
+                        break;
+                    }
+                    case OpCode.METHOD: {
+                        String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                        VmClosure method = (VmClosure) stack[sp - 1];
+                        VmClass klass = (VmClass) stack[sp - 2];
+                        klass.methods.put(name, method);
+                        if(name.equals("init")) klass.initializer = method;
+                        sp--;
+                        break;
+                    }
+                }
+            }
+        } catch (Trap trap) {
+            // Every byte of an instruction carries the same line, so the last one read will do.
+            throw new RuntimeError(frame.closure.function.chunk.getLine(ip - 1), trap.getMessage());
+        } finally {
+            this.sp = sp;
+        }
+    }
+
+    /**
+     * Method to call any callable value sitting below its arguments on the stack
+     *
+     * @param callee Object
+     * @param argCount int
+     */
+    private void callValue(Object callee, int argCount) {
+        if(callee instanceof VmClosure) {
+            call((VmClosure) callee, argCount);
+            return;
+        }
+
+        if(callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+            return;
+        }
+
+        if(callee instanceof VmClass) {
+            VmClass klass = (VmClass) callee;
+            stack[sp - argCount - 1] = new VmInstance(klass);
+            if(klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if(argCount != 0) {
+                throw new Trap("Expected 0 arguments but got " + argCount + ".");
+            }
+            return;
+        }
+
+        if(callee instanceof VmNative) {
+            VmNative function = (VmNative) callee;
+            if(argCount != function.arity) {
+                throw new Trap("Expected " + function.arity + " arguments but got " + argCount + ".");
+            }
+
+            Object result = function.body.call(Arrays.copyOfRange(stack, sp - argCount, sp));
+            sp -= argCount + 1;
+            push(result);
+            return;
+        }
+
+        throw new Trap("Can only call functions and classes.");
+    }
+
+    /**
+     * Method to run the frame a tail call just pushed in place of the frame that
+     * made the call, so tail recursion needs no more frames than a loop. The callee
+     * and its arguments move down over the caller's window.
+     */
+    private void replaceCaller() {
+        CallFrame callee = frames[frameCount - 1];
+        CallFrame caller = frames[frameCount - 2];
+        closeUpvalues(caller.base);
+
+        int window = sp - callee.base;
+        System.arraycopy(stack, callee.base, stack, caller.base, window);
+        sp = caller.base + window;
+
+        caller.closure = callee.closure;
+        caller.ip = callee.ip;
+        frameCount--;
+    }
+
+    /**
+     * Method to push a new call frame for a closure
+     *
+     * @param closure VmClosure
+     * @param argCount int
+     */
+    private void call(VmClosure closure, int argCount) {
+        VmFunction function = closure.function;
+        if(argCount != function.arity) {
+            throw new Trap("Expected " + function.arity + " arguments but got " + argCount + ".");
+        }
+
+        if(frameCount == frames.length) {
+            if(frameCount == FRAMES_MAX) throw new Trap("Stack overflow.");
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if(frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+
+        int needed = frame.base + function.maxStack;
+        if(needed > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(needed, stack.length * 2));
+        }
+    }
+
+    /**
+     * Method to call a method on the receiver below the arguments without binding it first
+     *
+     * @param name String
+     * @param argCount int
+     */
+    private void invoke(String name, int argCount) {
+        Object receiver = stack[sp - argCount - 1];
+        if(!(receiver instanceof VmInstance)) {
+            throw new Trap("Only instances have properties.");
+        }
+
+        VmInstance instance = (VmInstance) receiver;
+        Object field = instance.fields.get(name);
+        if(field != null || instance.fields.containsKey(name)) {
+            stack[sp - argCount - 1] = field;
+            callValue(field, argCount);
+            return;
+        }
+
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void invokeFromClass(VmClass klass, String name, int argCount) {
+        VmClosure method = klass.methods.get(name);
+        if(method == null) {
+            throw new Trap("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    /**
+     * Method to look up a method on a class and bind it to a receiver
+     *
+     * @param klass VmClass
+     * @param receiver Object
+     * @param name String
+     *
+     * @return VmBoundMethod
+     */
+    private VmBoundMethod bindMethod(VmClass klass, Object receiver, String name) {
+        VmClosure method = klass.methods.get(name);
+        if(method == null) {
+            throw new Trap("Undefined property '" + name + "'.");
+        }
+        return new VmBoundMethod(receiver, method);
+    }
+
+    /**
+     * Method to find or create the upvalue for a stack slot, keeping the open list
+     * sorted from the top of the stack downwards
+     *
+     * @param slot int
+     *
+     * @return VmUpvalue
+     */
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if(upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if(previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    /**
+     * Method to close every open upvalue pointing at or above the given slot
+     *
+     * @param last int
+     */
+    private void closeUpvalues(int last) {
+        while(openUpvalues != null && openUpvalues.slot >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private Object add(Object a, Object b) {
+        if(a instanceof Double && b instanceof Double) {
+            return (double) a + (double) b;
+        }
+
+        // Strings concatenate as ropes like on the tree walker, see Rope.
+        if(a instanceof CharSequence && b instanceof CharSequence) {
+            return Rope.concat((CharSequence) a, (CharSequence) b);
+        }
+
+        if(a instanceof CharSequence && b instanceof Double) {
+            return Rope.concat((CharSequence) a, Interpreter.stringify(b));
+        }
+
+        if(a instanceof Double && b instanceof CharSequence) {
+            return Rope.concat(Interpreter.stringify(a), (CharSequence) b);
+        }
+        throw new Trap("Operands must be numbers or strings.");
+    }
+
+    private void checkNumberOperands(Object a, Object b) {
+        if(a instanceof Double && b instanceof Double) return;
+        throw new Trap("Operands must be numbers");
+    }
+
+    private void defineNative(String name, int arity, VmNative.Body body) {
+        globals[globalSlot(name)] = new VmNative(name, arity, body);
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Class for a method closure bound to the instance it was accessed on
+ */
+class VmBoundMethod {
+    final Object receiver;
+    final VmClosure method;
+
+    VmBoundMethod(Object receiver, VmClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
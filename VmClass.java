@@ -0,0 +1,20 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for the VM runtime representation of a Fein class
+ */
+class VmClass {
+    final String name;
+    final Map<String, VmClosure> methods = new HashMap<>();
+    VmClosure initializer;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
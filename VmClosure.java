@@ -0,0 +1,17 @@
+/**
+ * Class for the runtime representation of a function together with its captured upvalues
+ */
+class VmClosure {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
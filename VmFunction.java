@@ -0,0 +1,20 @@
+/**
+ * Class for a compiled Fein function: its bytecode chunk and calling metadata
+ */
+class VmFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    int maxStack = 0;
+
+    VmFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if(name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,19 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for the VM runtime representation of an instance of a Fein class
+ */
+class VmInstance {
+    final VmClass klass;
+    final Map<String, Object> fields = new HashMap<>();
+
+    VmInstance(VmClass klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
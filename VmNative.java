@@ -0,0 +1,23 @@
+/**
+ * Class for functions implemented in Java and exposed to the VM
+ */
+class VmNative {
+    interface Body {
+        Object call(Object[] arguments);
+    }
+
+    final String name;
+    final int arity;
+    final Body body;
+
+    VmNative(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Class for a variable captured by a closure. While the variable is still live on the
+ * VM stack the upvalue points at its slot, once the slot goes away the value is closed over.
+ */
+class VmUpvalue {
+    int slot;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+
+    /**
+     * Method to check whether the upvalue still refers to a stack slot
+     *
+     * @return boolean
+     */
+    boolean isOpen() {
+        return slot >= 0;
+    }
+}
@@ -17,32 +17,42 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Assign   : Token name, Expr value | int stackSlot = -1, int cellSlot = -1," +
+                           " int upvalue = -1, GlobalCell global",
+                "Binary   : Expr left, Token operator, Expr right" +
+                           " | BinaryNode specialization = BinaryNode.UNINITIALIZED",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                           " | CallCache cache = new CallCache()",
+                "Get      : Expr object, Token name | PropertyCache cache = new PropertyCache()",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr object, Token name, Expr value" +
+                           " | PropertyCache cache = new PropertyCache()",
+                "Super    : Token keyword, Token method | int upvalue = -1, This receiver",
+                "This     : Token keyword | int stackSlot = -1, int cellSlot = -1, int upvalue = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int stackSlot = -1, int cellSlot = -1, int upvalue = -1," +
+                           " GlobalCell global, Stmt.Var constant"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | boolean scoped, int releaseSlot = -1",
                 "Class      : Token name, Expr.Variable superclass," +
-                            " List<Stmt.Function> methods",
+                            " List<Stmt.Function> methods | int stackSlot = -1," +
+                            " int cellSlot = -1, int superSlot = -1",
                 "Expression : Expr expression",
+                "For        : Stmt initializer, Expr condition, Expr increment," +
+                            " Stmt body | int releaseSlot = -1",
                 "Function   : Token name, List<Token> params," +
-                            " List<Stmt> body",
+                            " List<Stmt> body | int frameSize, int stackSlot = -1," +
+                            " int cellSlot = -1, boolean escapes, int[] capturedParameters," +
+                            " int[] upvalueIndexes, boolean[] upvalueLocals, boolean method",
                 "If         : Expr condition, Stmt thenBranch," +
                             " Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Return     : Token keyword, Expr value | boolean tailCall",
+                "Var        : Token name, Expr initializer | int stackSlot = -1, int cellSlot = -1",
                 "While      : Expr condition, Stmt body"
         ));
     }
@@ -68,7 +78,12 @@ public class GenerateAst {
         for(String type: types){
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String mutableFields = "";
+            if(fields.contains("|")) {
+                mutableFields = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         // The base accept() method.
@@ -92,14 +107,18 @@ public class GenerateAst {
     }
 
     /**
-     * Method to define fields subclass and constructor in ast classes
+     * Method to define fields subclass and constructor in ast classes.
+     * Fields after a '|' in the type description are not constructor parameters,
+     * they are left mutable so later passes like the resolver can fill them in.
      *
      * @param writer PrintWriter
      * @param baseName String
      * @param className String
      * @param fieldList String
+     * @param mutableFieldList String
      */
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className,
+                                   String fieldList, String mutableFieldList) {
         writer.println(" static class " + className + " extends " + baseName + " {");
 
         //constructor
@@ -127,6 +146,11 @@ public class GenerateAst {
         for(String field : fields){
             writer.println("    final " + field + ";");
         }
+        if(!mutableFieldList.isEmpty()) {
+            for(String field : mutableFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
         writer.println("    }");
 
     }